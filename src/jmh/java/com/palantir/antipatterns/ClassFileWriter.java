@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes minimal but valid class files for benchmarks: a class with a no-arg constructor and a set
+ * of methods that return null, zero or nothing.
+ */
+final class ClassFileWriter {
+
+    private static final int JAVA_7 = 51;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ACONST_NULL = 0x01;
+    private static final int ICONST_0 = 0x03;
+    private static final int LCONST_0 = 0x09;
+    private static final int FCONST_0 = 0x0B;
+    private static final int DCONST_0 = 0x0E;
+    private static final int IRETURN = 0xAC;
+    private static final int LRETURN = 0xAD;
+    private static final int FRETURN = 0xAE;
+    private static final int DRETURN = 0xAF;
+    private static final int ARETURN = 0xB0;
+    private static final int RETURN = 0xB1;
+    private static final int INVOKESPECIAL = 0xB7;
+
+    enum Kind {
+        CONCRETE(ACC_PUBLIC | ACC_SUPER, ACC_PUBLIC),
+        FINAL(ACC_PUBLIC | ACC_SUPER | ACC_FINAL, ACC_PUBLIC),
+        ABSTRACT(ACC_PUBLIC | ACC_SUPER | ACC_ABSTRACT, ACC_PUBLIC),
+        PROTECTED_CONSTRUCTOR(ACC_PUBLIC | ACC_SUPER, ACC_PROTECTED);
+
+        private final int classFlags;
+        private final int constructorFlags;
+
+        private Kind(int classFlags, int constructorFlags) {
+            this.classFlags = classFlags;
+            this.constructorFlags = constructorFlags;
+        }
+    }
+
+    private final String className;
+    private final String superclassName;
+    private final Kind kind;
+    private final List<String[]> methods = new ArrayList<>();
+    private final Map<String, Integer> constants = new LinkedHashMap<>();
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private int nextConstant = 1;
+
+    /** Class names are in internal form, e.g. java/lang/Object. */
+    ClassFileWriter(String className, String superclassName, Kind kind) {
+        this.className = className;
+        this.superclassName = superclassName;
+        this.kind = kind;
+    }
+
+    /** Adds a public method with the given JVM descriptor. */
+    ClassFileWriter addMethod(String name, String descriptor) {
+        methods.add(new String[] {name, descriptor});
+        return this;
+    }
+
+    byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream body = new DataOutputStream(bytes);
+            body.writeShort(kind.classFlags);
+            body.writeShort(classConstant(className));
+            body.writeShort(classConstant(superclassName));
+            body.writeShort(0);  // interfaces
+            body.writeShort(0);  // fields
+            body.writeShort(methods.size() + 1);
+            writeMethod(body, kind.constructorFlags, "<init>", "()V", constructorCode());
+            for (String[] method : methods) {
+                writeMethod(body, ACC_PUBLIC, method[0], method[1], returnCode(method[1]));
+            }
+            body.writeShort(0);  // attributes
+
+            ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(classFile);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(JAVA_7);
+            out.writeShort(nextConstant);
+            constantPool.writeTo(out);
+            bytes.writeTo(out);
+            return classFile.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private byte[] constructorCode() throws IOException {
+        int constructor = constant(10, classConstant(superclassName),
+                constant(12, utf8Constant("<init>"), utf8Constant("()V")));
+        return new byte[] {
+                (byte) ALOAD_0,
+                (byte) INVOKESPECIAL, (byte) (constructor >> 8), (byte) constructor,
+                (byte) RETURN};
+    }
+
+    private static byte[] returnCode(String descriptor) {
+        switch (descriptor.charAt(descriptor.indexOf(')') + 1)) {
+            case 'V':
+                return new byte[] {(byte) RETURN};
+            case 'J':
+                return new byte[] {(byte) LCONST_0, (byte) LRETURN};
+            case 'F':
+                return new byte[] {(byte) FCONST_0, (byte) FRETURN};
+            case 'D':
+                return new byte[] {(byte) DCONST_0, (byte) DRETURN};
+            case 'L':
+            case '[':
+                return new byte[] {(byte) ACONST_NULL, (byte) ARETURN};
+            default:
+                return new byte[] {(byte) ICONST_0, (byte) IRETURN};
+        }
+    }
+
+    private void writeMethod(DataOutputStream out, int flags, String name, String descriptor,
+            byte[] code) throws IOException {
+        out.writeShort(flags);
+        out.writeShort(utf8Constant(name));
+        out.writeShort(utf8Constant(descriptor));
+        out.writeShort(1);
+        out.writeShort(utf8Constant("Code"));
+        out.writeInt(12 + code.length);
+        out.writeShort(2);  // max stack: enough for a long or double
+        out.writeShort(1 + parameterSlots(descriptor));
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);  // exception table
+        out.writeShort(0);  // attributes
+    }
+
+    private static int parameterSlots(String descriptor) {
+        int slots = 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; i = Descriptors.endOfType(descriptor, i)) {
+            char type = descriptor.charAt(i);
+            slots += (type == 'J' || type == 'D') ? 2 : 1;
+        }
+        return slots;
+    }
+
+    private int utf8Constant(String value) throws IOException {
+        Integer index = constants.get("U" + value);
+        if (index == null) {
+            DataOutputStream out = new DataOutputStream(constantPool);
+            out.writeByte(1);
+            out.writeUTF(value);
+            index = nextConstant++;
+            constants.put("U" + value, index);
+        }
+        return index;
+    }
+
+    private int classConstant(String name) throws IOException {
+        return constant(7, utf8Constant(name));
+    }
+
+    private int constant(int tag, int... references) throws IOException {
+        StringBuilder key = new StringBuilder().append(tag);
+        for (int reference : references) {
+            key.append(':').append(reference);
+        }
+        Integer index = constants.get(key.toString());
+        if (index == null) {
+            DataOutputStream out = new DataOutputStream(constantPool);
+            out.writeByte(tag);
+            for (int reference : references) {
+                out.writeShort(reference);
+            }
+            index = nextConstant++;
+            constants.put(key.toString(), index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-class cost of both detectors' rules, which is all their visitClassContext
+ * methods do besides building bug instances. Each benchmark operation analyzes one class, so
+ * throughput is in classes per second, and the gc profiler's alloc.rate.norm is bytes per class.
+ *
+ * <p>Verdict caches are reset every iteration, so each iteration behaves like an analysis run that
+ * starts cold and warms up as it goes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DetectorBenchmark {
+
+    @Param({"10000"})
+    public int classCount;
+
+    @Param({"1", "4"})
+    public int depth;
+
+    @Param({"8"})
+    public int methodCount;
+
+    @Param({"0.1", "0.5"})
+    public double finalDensity;
+
+    private GeneratedHierarchy hierarchy;
+    private List<ByteBuffer> classes;
+    private int next;
+    private ExtendsConcreteTypeRule extendsConcreteTypeRule;
+    private FinalSignatureRule finalSignatureRule;
+    private final CountingListener listener = new CountingListener();
+
+    @Setup(Level.Trial)
+    public void generate() {
+        hierarchy = new GeneratedHierarchy(classCount, depth, methodCount, finalDensity, 42);
+        classes = hierarchy.getAnalyzedClasses();
+    }
+
+    @Setup(Level.Iteration)
+    public void startRun() {
+        extendsConcreteTypeRule = new ExtendsConcreteTypeRule();
+        finalSignatureRule = new FinalSignatureRule();
+        next = 0;
+    }
+
+    @Benchmark
+    public boolean extendsConcreteType() {
+        return extendsConcreteTypeRule.extendsConcreteType(nextClass(), hierarchy);
+    }
+
+    @Benchmark
+    public int finalSignature() {
+        finalSignatureRule.check(nextClass(), hierarchy, listener);
+        return listener.count;
+    }
+
+    private ClassHeader nextClass() {
+        ByteBuffer classFile = classes.get(next);
+        next = (next + 1) % classes.size();
+        return ClassHeader.parse(classFile);
+    }
+
+    private static class CountingListener implements FinalSignatureRule.Listener {
+        int count;
+
+        @Override
+        public void finalTypeReturn(int method, String type) {
+            count++;
+        }
+
+        @Override
+        public void finalTypeConstructor(int method) {
+            count++;
+        }
+
+        @Override
+        public void finalTypeParam(int method, int param, String type) {
+            count++;
+        }
+    }
+}
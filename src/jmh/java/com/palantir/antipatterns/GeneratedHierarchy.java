@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.palantir.antipatterns.ClassFileWriter.Kind;
+
+/**
+ * A randomly generated application for benchmarks. It has chains of base classes of configurable
+ * depth, and value types, a configurable fraction of which are final. The classes to analyze each
+ * extend one of the chains, and use the value types in their method signatures.
+ */
+final class GeneratedHierarchy implements ClassLookup {
+
+    private static final int BASE_CHAINS = 16;
+    private static final int VALUE_TYPES = 256;
+    private static final int MAX_PARAMETERS = 3;
+
+    private final Map<String, byte[]> classFiles = new HashMap<>();
+    private final List<ByteBuffer> analyzedClasses = new ArrayList<>();
+
+    GeneratedHierarchy(int classCount, int depth, int methodCount, double finalDensity, long seed) {
+        Random random = new Random(seed);
+        Kind[] rootKinds = {Kind.CONCRETE, Kind.ABSTRACT, Kind.PROTECTED_CONSTRUCTOR};
+        String[] chainLeaves = new String[BASE_CHAINS];
+        for (int chain = 0; chain < BASE_CHAINS; chain++) {
+            String superclassName = "java/lang/Object";
+            for (int level = 0; level < depth; level++) {
+                String name = "bench/Base" + chain + "_" + level;
+                Kind kind = (level == 0) ? rootKinds[random.nextInt(rootKinds.length)] : Kind.CONCRETE;
+                add(name, new ClassFileWriter(name, superclassName, kind).toByteArray());
+                superclassName = name;
+            }
+            chainLeaves[chain] = superclassName;
+        }
+        for (int value = 0; value < VALUE_TYPES; value++) {
+            String name = "bench/Value" + value;
+            Kind kind = (random.nextDouble() < finalDensity) ? Kind.FINAL : Kind.CONCRETE;
+            add(name, new ClassFileWriter(name, "java/lang/Object", kind).toByteArray());
+        }
+        for (int cls = 0; cls < classCount; cls++) {
+            String name = "bench/Class" + cls;
+            ClassFileWriter writer = new ClassFileWriter(
+                    name, chainLeaves[random.nextInt(BASE_CHAINS)], Kind.CONCRETE);
+            for (int method = 0; method < methodCount; method++) {
+                writer.addMethod("method" + method, randomDescriptor(random));
+            }
+            byte[] bytes = writer.toByteArray();
+            add(name, bytes);
+            analyzedClasses.add(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    /** The class files to analyze, excluding the base classes and value types they reference. */
+    List<ByteBuffer> getAnalyzedClasses() {
+        return analyzedClasses;
+    }
+
+    @Override
+    public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+        byte[] bytes = classFiles.get(className);
+        if (bytes == null) {
+            throw new ClassNotFoundException(className);
+        }
+        return ClassHeader.parse(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public int lookupAccessFlags(String className) throws ClassNotFoundException {
+        byte[] bytes = classFiles.get(className);
+        if (bytes == null) {
+            throw new ClassNotFoundException(className);
+        }
+        try {
+            return ClassHeader.readAccessFlags(new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            throw new ClassNotFoundException(className, e);
+        }
+    }
+
+    private void add(String internalName, byte[] bytes) {
+        classFiles.put(internalName.replace('/', '.'), bytes);
+    }
+
+    private static String randomDescriptor(Random random) {
+        StringBuilder descriptor = new StringBuilder("(");
+        int parameters = 1 + random.nextInt(MAX_PARAMETERS);
+        for (int i = 0; i < parameters; i++) {
+            descriptor.append(randomType(random));
+        }
+        descriptor.append(')');
+        descriptor.append(random.nextBoolean() ? "V" : randomType(random));
+        return descriptor.toString();
+    }
+
+    private static String randomType(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return "I";
+            case 1:
+                return "Ljava/lang/String;";
+            case 2:
+                return "[Lbench/Value" + random.nextInt(VALUE_TYPES) + ";";
+            default:
+                return "Lbench/Value" + random.nextInt(VALUE_TYPES) + ";";
+        }
+    }
+}
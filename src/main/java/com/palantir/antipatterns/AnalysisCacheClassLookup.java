@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
+import edu.umd.cs.findbugs.classfile.ResourceNotFoundException;
+import edu.umd.cs.findbugs.classfile.analysis.ClassData;
+
+/**
+ * Resolves types through the FindBugs analysis cache, reading the raw class file bytes FindBugs
+ * has already loaded rather than having it parse a full BCEL {@code JavaClass}. Access flags are
+ * read straight from the class path, so referenced types are never loaded into, or retained by,
+ * the analysis cache. Like the analysis cache itself, only for use from the FindBugs analysis
+ * thread.
+ */
+class AnalysisCacheClassLookup implements ClassLookup, HierarchyIndex.JarLocator {
+
+    @Override
+    public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        try {
+            ClassData data = analysisCache.getClassAnalysis(ClassData.class,
+                    DescriptorFactory.createClassDescriptorFromDottedClassName(className));
+            return ClassHeader.parse(ByteBuffer.wrap(data.getData()));
+        } catch (CheckedAnalysisException | IllegalArgumentException e) {
+            throw new ClassNotFoundException(className, e);
+        }
+    }
+
+    @Override
+    public int lookupAccessFlags(String className) throws ClassNotFoundException {
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        String resourceName = className.replace('.', '/') + ".class";
+        try {
+            ICodeBaseEntry entry = analysisCache.getClassPath().lookupResource(resourceName);
+            try (InputStream in = entry.openResource()) {
+                return ClassHeader.readAccessFlags(in);
+            }
+        } catch (ResourceNotFoundException | IOException e) {
+            throw new ClassNotFoundException(className, e);
+        }
+    }
+
+    @Override
+    public Path findJar(String className) {
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        String resourceName = className.replace('.', '/') + ".class";
+        try {
+            ICodeBaseEntry entry = analysisCache.getClassPath().lookupResource(resourceName);
+            String path = entry.getCodeBase().getPathName();
+            if (path == null || !path.endsWith(".jar")) {
+                return null;
+            }
+            return TypeCensus.pathOf(new File(path));
+        } catch (ResourceNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,956 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+/**
+ * Runs the antipatterns checks over jars and class directories without starting the FindBugs
+ * engine. Classes are analyzed in shards on a fork-join pool; findings are returned in the order
+ * the classes appear in the inputs, whatever the parallelism.
+ *
+ * <p>Usage: {@code AntipatternScanner [-classpath <path>] [-threads <n>] [-cache <file>]
+ * [-exclude <packages>] [-include <packages>] [-packages <file>] [-missing <policy>]
+ * [-baseline <file>] [-record-baseline <file>] [-output <file>] [-sarif <file>] [-watch]
+ * [-shard <file>] [-merge] [-deps <file> [-changed <file>]] [-exports <packages>]
+ * [-module-exports] [-prefetch <n>] [-census <directory>] <jar or directory>...}
+ *
+ * <p>With {@code -watch}, the inputs must be directories of class files, and classes are analyzed
+ * again as they are recompiled, until the process is killed. With {@code -shard}, the inputs are
+ * analyzed as one shard of a larger run and a partial result written to the file given; with
+ * {@code -merge}, the inputs are partial results, and the findings of the whole run are output.
+ * {@code -deps} keeps a dependency index between runs; given {@code -changed}, a file listing the
+ * classes changed since the last run one per line, only they and their dependents are analyzed.
+ * {@code -exports} and {@code -module-exports} limit the final signature checks to the public
+ * classes of the listed packages, or of the packages the inputs' module-info classes export.
+ * {@code -prefetch} reads referenced types ahead of analysis on the given number of threads.
+ * {@code -census} caches a census of each classpath jar's types in the given directory.
+ */
+public final class AntipatternScanner {
+
+    private final List<File> classpath;
+    private final int parallelism;
+    private final File cacheFile;
+    private final PackageFilter packageFilter;
+    private final MissingTypePolicy missingTypePolicy;
+    private final Baseline baseline;
+    private final File recordBaselineFile;
+    private final File dependencyIndexFile;
+    private final ImmutableList<String> exportedPackages;
+    private final boolean moduleExports;
+    private final int prefetchThreads;
+    private final File censusDirectory;
+
+    /**
+     * @param classpath jars and directories that analyzed classes may reference, in addition to the
+     *     inputs themselves and the running JDK
+     * @param parallelism number of threads to analyze classes on
+     */
+    public AntipatternScanner(List<File> classpath, int parallelism) {
+        this(builder().classpath(classpath).parallelism(parallelism));
+    }
+
+    private AntipatternScanner(Builder builder) {
+        this.classpath = ImmutableList.copyOf(builder.classpath);
+        this.parallelism = builder.parallelism;
+        this.cacheFile = builder.cacheFile;
+        this.packageFilter = builder.packageFilter.build();
+        this.missingTypePolicy = builder.missingTypePolicy;
+        this.baseline = builder.baseline;
+        this.recordBaselineFile = builder.recordBaselineFile;
+        this.dependencyIndexFile = builder.dependencyIndexFile;
+        this.exportedPackages = (builder.exportedPackages == null)
+                ? null : ImmutableList.copyOf(builder.exportedPackages);
+        this.moduleExports = builder.moduleExports;
+        this.prefetchThreads = builder.prefetchThreads;
+        this.censusDirectory = builder.censusDirectory;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private final List<File> classpath = new ArrayList<>();
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private File cacheFile;
+        private final PackageFilter.Builder packageFilter = PackageFilter.builder();
+        private MissingTypePolicy missingTypePolicy = MissingTypePolicy.WARN_ONCE;
+        private Baseline baseline = Baseline.EMPTY;
+        private File recordBaselineFile;
+        private File dependencyIndexFile;
+        private List<String> exportedPackages;
+        private boolean moduleExports;
+        private int prefetchThreads;
+        private File censusDirectory;
+
+        private Builder() {}
+
+        /**
+         * Adds jars and directories that analyzed classes may reference, in addition to the inputs
+         * themselves and the running JDK.
+         */
+        public Builder classpath(Iterable<File> entries) {
+            Iterables.addAll(classpath, entries);
+            return this;
+        }
+
+        /** Sets the number of threads to analyze classes on. Defaults to the number of cores. */
+        public Builder parallelism(int parallelism) {
+            checkArgument(parallelism > 0, "parallelism must be positive");
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Reads the types each class references on this many extra threads, all at once, before
+         * its checks need them. Worthwhile when reads are slow, e.g. from a network filesystem.
+         * Defaults to 0, reading each type only when it is needed.
+         */
+        public Builder prefetchThreads(int prefetchThreads) {
+            checkArgument(prefetchThreads >= 0, "prefetchThreads must not be negative");
+            this.prefetchThreads = prefetchThreads;
+            return this;
+        }
+
+        /**
+         * Takes a census of each classpath jar's types the first time it is seen, kept in
+         * {@code directory} under the jar's SHA-256, and answers questions about library types
+         * from it rather than from their class files. The directory can be shared between
+         * builds.
+         */
+        public Builder censusDirectory(File directory) {
+            this.censusDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Keeps findings in {@code cacheFile} between runs, so classes that have not changed since
+         * the last run, and whose superclasses and signature types have not changed either, are not
+         * analyzed again.
+         */
+        public Builder cacheFile(File cacheFile) {
+            this.cacheFile = cacheFile;
+            return this;
+        }
+
+        /**
+         * Keeps each class's findings in {@code file} between runs, with the types its verdicts
+         * depended on, so {@link AntipatternScanner#scanChanged} can analyze just the classes a
+         * change might affect.
+         */
+        public Builder dependencyIndex(File file) {
+            this.dependencyIndexFile = file;
+            return this;
+        }
+
+        /**
+         * Trusts types in these packages, and their subpackages, without checking whether they are
+         * final. Types in java.* are trusted by default.
+         */
+        public Builder excludePackages(Iterable<String> packageNames) {
+            packageFilter.exclude(packageNames);
+            return this;
+        }
+
+        /**
+         * Checks types in these packages, and their subpackages, even if a parent package is
+         * excluded. The most specific package listed wins.
+         */
+        public Builder includePackages(Iterable<String> packageNames) {
+            packageFilter.include(packageNames);
+            return this;
+        }
+
+        /**
+         * Reads package rules from a file with one package per line: {@code -com.google} to exclude
+         * a package tree, {@code +com.google.mycompany} to include one. Blank lines and lines
+         * starting with {@code #} are ignored.
+         */
+        public Builder packageFile(File file) throws IOException {
+            packageFilter.addFile(file);
+            return this;
+        }
+
+        /**
+         * Checks final signature types only in the public classes of these packages, the
+         * library's API. Subpackages are not included unless listed too. Classes outside the API
+         * are still checked for extending concrete types.
+         */
+        public Builder exportedPackages(Iterable<String> packageNames) {
+            if (exportedPackages == null) {
+                exportedPackages = new ArrayList<>();
+            }
+            Iterables.addAll(exportedPackages, packageNames);
+            return this;
+        }
+
+        /**
+         * As {@link #exportedPackages}, for the packages exported to every module by the
+         * module-info classes in the inputs. Scans fail if the inputs hold no module-info class.
+         */
+        public Builder moduleExports() {
+            this.moduleExports = true;
+            return this;
+        }
+
+        /**
+         * Sets what to do when a type referenced by an analyzed class cannot be found on the
+         * classpath. Defaults to {@link MissingTypePolicy#WARN_ONCE}. Missing types are listed on
+         * stderr at the end of each scan.
+         */
+        public Builder missingTypePolicy(MissingTypePolicy missingTypePolicy) {
+            this.missingTypePolicy = checkNotNull(missingTypePolicy);
+            return this;
+        }
+
+        /**
+         * Suppresses findings recorded in a baseline file by an earlier run, e.g. with
+         * {@code -record-baseline}, so only new findings are reported.
+         */
+        public Builder baseline(File file) throws IOException {
+            this.baseline = Baseline.load(file);
+            return this;
+        }
+
+        /**
+         * Records every finding of each scan in a new baseline file, written when the scan
+         * completes. Findings suppressed by {@link #baseline} are recorded too, so a baseline can
+         * be recorded again over itself.
+         */
+        public Builder recordBaseline(File file) {
+            this.recordBaselineFile = checkNotNull(file);
+            return this;
+        }
+
+        public AntipatternScanner build() {
+            return new AntipatternScanner(this);
+        }
+    }
+
+    /** Analyzes every class in {@code inputs}, returning findings in input order. */
+    public List<Finding> scan(List<File> inputs) throws IOException {
+        List<Finding> findings = new ArrayList<>();
+        scan(inputs, collectInto(findings));
+        return findings;
+    }
+
+    /**
+     * Analyzes every class in {@code inputs}, passing findings to {@code listener} in input order
+     * as soon as they are made.
+     */
+    public void scan(List<File> inputs, FindingListener listener) throws IOException {
+        scan(inputs, null, listener);
+    }
+
+    /**
+     * Analyzes only those classes in {@code inputs} whose findings might have changed since the
+     * last scan with the same dependency index: the classes in {@code changedClasses}, which must
+     * name every class added, modified or deleted since, the classes whose verdicts depend on
+     * them, and classes the index has not seen. The findings of every other class are replayed
+     * from the index without reading its class file. All findings are passed to
+     * {@code listener}, in input order, as for a full scan.
+     *
+     * @throws IllegalStateException if no dependency index was configured
+     */
+    public void scanChanged(List<File> inputs, Collection<String> changedClasses,
+            FindingListener listener) throws IOException {
+        checkState(dependencyIndexFile != null, "No dependency index configured");
+        scan(inputs, checkNotNull(changedClasses), listener);
+    }
+
+    private void scan(List<File> inputs, Collection<String> changedClasses,
+            FindingListener listener) throws IOException {
+        List<File> lookupPath = ImmutableList.copyOf(Iterables.concat(inputs, classpath));
+        try (ClassFileSet classFiles = ClassFileSet.open(inputs);
+                ClasspathLookup lookup = new ClasspathLookup(lookupPath);
+                PrefetchingLookup prefetcher = newPrefetcher(lookup)) {
+            MissingTypes missingTypes = newMissingTypes();
+            ApiSurface apiSurface = apiSurface(inputs);
+            ClassAnalyzer analyzer = new ClassAnalyzer(
+                    missingTypes.track(prefetching(lookup, prefetcher)), newHierarchyIndex(lookup),
+                    packageFilter, apiSurface, prefetcher);
+            String configuration = packageFilter + " " + missingTypePolicy
+                    + (apiSurface.isRestricted() ? " " + apiSurface : "");
+            ResultCache cache =
+                    (cacheFile == null) ? null : ResultCache.load(cacheFile, configuration);
+            IncrementalAnalyzer incremental =
+                    (cache == null) ? null : new IncrementalAnalyzer(analyzer, lookup, cache);
+            DependencyIndex dependencyIndex = (dependencyIndexFile == null)
+                    ? null : DependencyIndex.load(dependencyIndexFile, configuration);
+            Set<String> affected = (changedClasses == null)
+                    ? null : dependencyIndex.getAffectedLocations(changedClasses);
+            // Reading ahead would defeat the point of classes replayed without being read.
+            ShardedAnalysis.Lookahead lookahead = (incremental == null && affected == null)
+                    ? lookahead(prefetcher, analyzer) : null;
+            Baseline.Recorder recorder = newRecorder();
+            ShardedAnalysis.runForFindings(classFiles.getClassFiles(), parallelism, lookahead,
+                    classTask(analyzer, incremental, dependencyIndex, affected),
+                    suppressBaseline(listener, recorder));
+            saveRecorder(recorder);
+            if (cache != null) {
+                cache.save(cacheFile);
+            }
+            if (dependencyIndex != null) {
+                Set<String> locations = new HashSet<>();
+                for (ClassFileSet.ClassFile classFile : classFiles.getClassFiles()) {
+                    locations.add(classFile.getLocation());
+                }
+                dependencyIndex.retain(locations);
+                dependencyIndex.save(dependencyIndexFile);
+            }
+            printSummary(missingTypes);
+        }
+    }
+
+    /**
+     * Analyzes class files that are already in memory, such as an IDE's compiler output, returning
+     * findings in the order the classes are given. Types they reference are resolved from each
+     * other first, then from the classpath. The result cache is not used.
+     *
+     * @throws IllegalArgumentException if any of {@code classFiles} is not a valid class file
+     */
+    public List<Finding> scanClasses(List<byte[]> classFiles) throws IOException {
+        List<Finding> findings = new ArrayList<>();
+        scanClasses(classFiles, collectInto(findings));
+        return findings;
+    }
+
+    /**
+     * As {@link #scanClasses(List)}, but passes findings to {@code listener} as soon as they are
+     * made.
+     */
+    public void scanClasses(List<byte[]> classFiles, FindingListener listener) throws IOException {
+        Map<String, byte[]> classesByName = new HashMap<>();
+        List<ClassFileSet.ClassFile> inputs = new ArrayList<>(classFiles.size());
+        Set<String> modulePackages = new TreeSet<>();
+        boolean foundModule = false;
+        for (byte[] classFile : classFiles) {
+            ClassHeader header = ClassHeader.parse(ByteBuffer.wrap(classFile));
+            if (header.isModule()) {
+                modulePackages.addAll(header.getExportedPackages());
+                foundModule = true;
+                continue;
+            }
+            String className = header.getClassName();
+            classesByName.put(className, classFile);
+            inputs.add(ClassFileSet.inMemory(className, classFile));
+        }
+        try (ClasspathLookup classpathLookup = new ClasspathLookup(classpath)) {
+            MissingTypes missingTypes = newMissingTypes();
+            ClassLookup lookup = missingTypes.track(
+                    new InMemoryClassLookup(classesByName, classpathLookup));
+            ClassAnalyzer analyzer = new ClassAnalyzer(lookup,
+                    newHierarchyIndex(shadowedBy(classesByName, classpathLookup)), packageFilter,
+                    apiSurface(modulePackages, foundModule), null);
+            Baseline.Recorder recorder = newRecorder();
+            ShardedAnalysis.runForFindings(inputs, parallelism,
+                    classTask(analyzer, null, null, null),
+                    suppressBaseline(listener, recorder));
+            saveRecorder(recorder);
+            printSummary(missingTypes);
+        }
+    }
+
+    /**
+     * Analyzes {@code inputs} as one shard of a larger run, e.g. one jar of many, writing a partial
+     * result to {@code partialFile} for {@link #merge}. Types that are not in the inputs or on the
+     * classpath are taken to be in other shards, so are not reported missing; the classes that
+     * reference them are left for the merge to check. Other shards' jars can be left off the
+     * classpath, and should be if they may be out of date. The result cache is not used.
+     */
+    public void scanShard(List<File> inputs, File partialFile) throws IOException {
+        List<File> lookupPath = ImmutableList.copyOf(Iterables.concat(inputs, classpath));
+        try (ClassFileSet classFiles = ClassFileSet.open(inputs);
+                ClasspathLookup lookup = new ClasspathLookup(lookupPath);
+                PrefetchingLookup prefetcher = newPrefetcher(lookup)) {
+            MissingTypes missingTypes = new MissingTypes(MissingTypePolicy.SKIP, null);
+            ApiSurface apiSurface = apiSurface(inputs);
+            final ClassAnalyzer analyzer = new ClassAnalyzer(
+                    missingTypes.track(prefetching(lookup, prefetcher)), newHierarchyIndex(lookup),
+                    packageFilter, apiSurface, prefetcher);
+            final PartialResult partial = new PartialResult(partialConfiguration(), apiSurface);
+            ShardedAnalysis.ClassTask<PartialResult.ClassResult> task =
+                    new ShardedAnalysis.ClassTask<PartialResult.ClassResult>() {
+                        @Override
+                        public void analyze(ClassFileSet.ClassFile classFile,
+                                List<PartialResult.ClassResult> results) {
+                            analyzeShardClass(classFile, analyzer, partial, results);
+                        }
+                    };
+            ShardedAnalysis.run(classFiles.getClassFiles(), parallelism,
+                    lookahead(prefetcher, analyzer), task,
+                    new ShardedAnalysis.ResultListener<PartialResult.ClassResult>() {
+                        @Override
+                        public void result(PartialResult.ClassResult result) {
+                            partial.addResult(result);
+                        }
+                    });
+            partial.save(partialFile);
+        }
+    }
+
+    /**
+     * Combines the partial results written by {@link #scanShard}, returning the findings a single
+     * scan of every shard's inputs, in the same order, would.
+     */
+    public List<Finding> merge(List<File> partialFiles) throws IOException {
+        List<Finding> findings = new ArrayList<>();
+        merge(partialFiles, collectInto(findings));
+        return findings;
+    }
+
+    /**
+     * Combines the partial results written by {@link #scanShard}, passing {@code listener} the
+     * findings a single scan of every shard's inputs, in the same order, would. Classes that
+     * referenced types missing from their own shard are checked again against every shard's
+     * classes, then the classpath.
+     *
+     * @throws IOException if a partial result cannot be read, or was written with different
+     *     package rules
+     */
+    public void merge(List<File> partialFiles, FindingListener listener) throws IOException {
+        List<PartialResult> partials = new ArrayList<>(partialFiles.size());
+        Map<String, byte[]> classes = new HashMap<>();
+        // JPMS packages belong to one module, so each shard's exports can simply be combined.
+        ApiSurface apiSurface = (exportedPackages == null)
+                ? null : ApiSurface.exporting(exportedPackages);
+        for (File partialFile : partialFiles) {
+            PartialResult partial = PartialResult.load(partialFile);
+            if (!partial.getConfiguration().equals(partialConfiguration())) {
+                throw new IOException(partialFile + " was written with package rules "
+                        + partial.getConfiguration() + ", not " + partialConfiguration());
+            }
+            partials.add(partial);
+            apiSurface = (apiSurface == null)
+                    ? partial.getApiSurface() : apiSurface.union(partial.getApiSurface());
+            for (Map.Entry<String, byte[]> entry : partial.getClasses().entrySet()) {
+                // As on a classpath, the first shard to define a class wins.
+                if (!classes.containsKey(entry.getKey())) {
+                    classes.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        Baseline.Recorder recorder = newRecorder();
+        FindingListener output = suppressBaseline(listener, recorder);
+        try (ClasspathLookup classpathLookup = new ClasspathLookup(classpath)) {
+            MissingTypes missingTypes = newMissingTypes();
+            ClassLookup lookup =
+                    missingTypes.track(new InMemoryClassLookup(classes, classpathLookup));
+            ClassAnalyzer analyzer = new ClassAnalyzer(lookup,
+                    newHierarchyIndex(shadowedBy(classes, classpathLookup)), packageFilter,
+                    (apiSurface == null) ? ApiSurface.ALL : apiSurface, null);
+            List<Finding> findings = new ArrayList<>();
+            for (PartialResult partial : partials) {
+                for (PartialResult.ClassResult result : partial.getResults()) {
+                    if (result.isDeferred()) {
+                        analyzer.analyze(
+                                ClassHeader.parse(ByteBuffer.wrap(result.getSkeleton())), findings);
+                    } else {
+                        findings.addAll(result.getFindings());
+                    }
+                    for (Finding finding : findings) {
+                        output.foundAntipattern(finding);
+                    }
+                    findings.clear();
+                }
+            }
+            saveRecorder(recorder);
+            printSummary(missingTypes);
+        }
+    }
+
+    /**
+     * Analyzes every class in {@code directories}, then keeps watching them, analyzing classes
+     * again as they are recompiled, until the calling thread is interrupted. Lookups and verdicts
+     * on unchanged types are kept between changes, so typically only the changed classes
+     * themselves are read. The result cache is not used.
+     *
+     * @throws IllegalArgumentException if any of {@code directories} is not a directory
+     */
+    public void watch(List<File> directories, WatchListener listener)
+            throws IOException, InterruptedException {
+        List<Path> roots = new ArrayList<>();
+        for (File directory : directories) {
+            checkArgument(directory.isDirectory(), "Not a directory: %s", directory);
+            roots.add(directory.toPath());
+        }
+        List<File> lookupPath = ImmutableList.copyOf(Iterables.concat(directories, classpath));
+        try (ClasspathLookup lookup = new ClasspathLookup(lookupPath);
+                PrefetchingLookup prefetcher = newPrefetcher(lookup)) {
+            MissingTypes missingTypes = newMissingTypes();
+            ClassAnalyzer analyzer = new ClassAnalyzer(
+                    missingTypes.track(prefetching(lookup, prefetcher)), newHierarchyIndex(lookup),
+                    packageFilter, apiSurface(directories), prefetcher);
+            try (ClassWatcher watcher =
+                    new ClassWatcher(roots, analyzer, missingTypes, parallelism)) {
+                watcher.run(suppressBaselineInChanges(listener));
+            }
+        }
+    }
+
+    private WatchListener suppressBaselineInChanges(final WatchListener listener) {
+        if (baseline == Baseline.EMPTY) {
+            return listener;
+        }
+        return new WatchListener() {
+            @Override
+            public void findingsChanged(Map<String, List<Finding>> findingsByClass)
+                    throws IOException {
+                Map<String, List<Finding>> unsuppressed = new LinkedHashMap<>();
+                for (Map.Entry<String, List<Finding>> entry : findingsByClass.entrySet()) {
+                    List<Finding> findings = new ArrayList<>();
+                    for (Finding finding : entry.getValue()) {
+                        if (!baseline.contains(Baseline.fingerprint(finding))) {
+                            findings.add(finding);
+                        }
+                    }
+                    unsuppressed.put(entry.getKey(), findings);
+                }
+                listener.findingsChanged(unsuppressed);
+            }
+        };
+    }
+
+    /** Records every finding, if recording, and passes on those not in the baseline. */
+    private FindingListener suppressBaseline(
+            final FindingListener listener, final Baseline.Recorder recorder) {
+        if (baseline == Baseline.EMPTY && recorder == null) {
+            return listener;
+        }
+        return new FindingListener() {
+            @Override
+            public void foundAntipattern(Finding finding) throws IOException {
+                long fingerprint = Baseline.fingerprint(finding);
+                if (recorder != null) {
+                    recorder.record(fingerprint);
+                }
+                if (!baseline.contains(fingerprint)) {
+                    listener.foundAntipattern(finding);
+                }
+            }
+        };
+    }
+
+    private Baseline.Recorder newRecorder() {
+        return (recordBaselineFile == null) ? null : new Baseline.Recorder();
+    }
+
+    private void saveRecorder(Baseline.Recorder recorder) throws IOException {
+        if (recorder != null) {
+            recorder.save(recordBaselineFile);
+        }
+    }
+
+    private static FindingListener collectInto(final List<Finding> findings) {
+        return new FindingListener() {
+            @Override
+            public void foundAntipattern(Finding finding) {
+                findings.add(finding);
+            }
+        };
+    }
+
+    /** The classes to check final signatures in, given the module-info classes in the inputs. */
+    private ApiSurface apiSurface(Iterable<File> inputs) throws IOException {
+        Set<String> modulePackages = new TreeSet<>();
+        boolean foundModule = false;
+        if (moduleExports) {
+            for (File input : inputs) {
+                foundModule |= ApiSurface.readModuleExports(input, modulePackages);
+            }
+        }
+        return apiSurface(modulePackages, foundModule);
+    }
+
+    private ApiSurface apiSurface(Collection<String> modulePackages, boolean foundModule) {
+        if (exportedPackages == null && !moduleExports) {
+            return ApiSurface.ALL;
+        }
+        checkArgument(!moduleExports || foundModule, "No module-info.class in the inputs");
+        Set<String> packages = new TreeSet<>(modulePackages);
+        if (exportedPackages != null) {
+            packages.addAll(exportedPackages);
+        }
+        return ApiSurface.exporting(packages);
+    }
+
+    /**
+     * The settings that shards and their merge must agree on. Shards of a modular build each
+     * export their own packages, so only whether the API is restricted has to match.
+     */
+    private String partialConfiguration() {
+        return (exportedPackages == null && !moduleExports)
+                ? packageFilter.toString() : packageFilter + " api";
+    }
+
+    /**
+     * An index answering from the classpath jars' censuses, if a census directory is set, for
+     * the classes {@code locator} finds in those jars.
+     */
+    private HierarchyIndex newHierarchyIndex(HierarchyIndex.JarLocator locator)
+            throws IOException {
+        if (censusDirectory == null) {
+            return new HierarchyIndex();
+        }
+        return new HierarchyIndex(TypeCensus.forJars(classpath, censusDirectory), locator);
+    }
+
+    /** Locates classes in jars, except those in {@code inMemory}, which shadow the classpath. */
+    private static HierarchyIndex.JarLocator shadowedBy(final Map<String, ?> inMemory,
+            final HierarchyIndex.JarLocator locator) {
+        return new HierarchyIndex.JarLocator() {
+            @Override
+            public Path findJar(String className) {
+                return inMemory.containsKey(className) ? null : locator.findJar(className);
+            }
+        };
+    }
+
+    /** A prefetcher reading through {@code lookup}, or null if prefetching is off. */
+    private PrefetchingLookup newPrefetcher(ClassLookup lookup) {
+        return (prefetchThreads == 0) ? null : new PrefetchingLookup(lookup, prefetchThreads);
+    }
+
+    /** Prefetches for each class file as it nears the front of the queue, if prefetching. */
+    private static ShardedAnalysis.Lookahead lookahead(
+            PrefetchingLookup prefetcher, final ClassAnalyzer analyzer) {
+        if (prefetcher == null) {
+            return null;
+        }
+        return new ShardedAnalysis.Lookahead() {
+            @Override
+            public void upcoming(ClassFileSet.ClassFile classFile) {
+                analyzer.prefetch(classFile);
+            }
+        };
+    }
+
+    private static ClassLookup prefetching(ClassLookup lookup, PrefetchingLookup prefetcher) {
+        return (prefetcher == null) ? lookup : prefetcher;
+    }
+
+    private MissingTypes newMissingTypes() {
+        return new MissingTypes(missingTypePolicy, new MissingTypes.Warning() {
+            @Override
+            public void missingType(ClassNotFoundException e) {
+                System.err.println("Missing type " + e.getMessage());
+            }
+        });
+    }
+
+    private static void printSummary(MissingTypes missingTypes) {
+        String summary = missingTypes.summary();
+        if (summary != null) {
+            System.err.println(summary);
+        }
+    }
+
+    /**
+     * Analyzes each class, recording its dependencies if {@code dependencyIndex} is not null.
+     * Unless {@code affected} is null, classes not in it are replayed from the index if possible.
+     */
+    private static ShardedAnalysis.ClassTask<Finding> classTask(
+            final ClassAnalyzer analyzer,
+            final IncrementalAnalyzer incremental,
+            final DependencyIndex dependencyIndex,
+            final Set<String> affected) {
+        return new ShardedAnalysis.ClassTask<Finding>() {
+            @Override
+            public void analyze(ClassFileSet.ClassFile classFile, List<Finding> findings) {
+                String location = classFile.getLocation();
+                if (affected != null && !affected.contains(location)) {
+                    DependencyIndex.Entry entry = dependencyIndex.get(location);
+                    if (entry != null) {
+                        findings.addAll(entry.getFindings());
+                        return;
+                    }
+                }
+                try {
+                    List<Finding> classFindings = new ArrayList<>();
+                    ClassHeader header;
+                    if (incremental != null) {
+                        ByteBuffer bytes = classFile.read();
+                        incremental.analyze(bytes, classFindings);
+                        header = (dependencyIndex == null) ? null : ClassHeader.parse(bytes);
+                    } else {
+                        // Taken from the prefetcher if it has already been read ahead.
+                        header = analyzer.read(classFile);
+                        analyzer.analyze(header, classFindings);
+                    }
+                    if (dependencyIndex != null) {
+                        Set<String> dependencies = new TreeSet<>();
+                        analyzer.collectDependencies(header, dependencies);
+                        dependencyIndex.put(location, new DependencyIndex.Entry(
+                                header.getClassName(), dependencies, classFindings));
+                    }
+                    findings.addAll(classFindings);
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not read " + classFile, e);
+                } catch (RuntimeException e) {
+                    if (dependencyIndex != null) {
+                        dependencyIndex.remove(location);
+                    }
+                    // As in FindBugs, a class that cannot be analyzed does not abort the whole run.
+                    System.err.println("Could not analyze " + classFile + ": " + e);
+                }
+            }
+        };
+    }
+
+    private static void analyzeShardClass(ClassFileSet.ClassFile classFile, ClassAnalyzer analyzer,
+            PartialResult partial, List<PartialResult.ClassResult> results) {
+        try {
+            ClassHeader header = analyzer.read(classFile);
+            partial.addClass(header);
+            if (analyzer.dependsOnMissingTypes(header)) {
+                results.add(PartialResult.ClassResult.deferred(
+                        header.getClassName(), header.toSkeleton(true)));
+                return;
+            }
+            List<Finding> findings = new ArrayList<>();
+            analyzer.analyze(header, findings);
+            if (!findings.isEmpty()) {
+                results.add(PartialResult.ClassResult.resolved(header.getClassName(), findings));
+            }
+        } catch (IOException | RuntimeException e) {
+            // As in FindBugs, a class that cannot be analyzed does not abort the whole run.
+            System.err.println("Could not analyze " + classFile + ": " + e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Builder builder = builder();
+        List<File> inputs = new ArrayList<>();
+        File output = null;
+        File sarif = null;
+        File recordBaseline = null;
+        boolean watch = false;
+        File shard = null;
+        boolean merge = false;
+        File dependencyIndex = null;
+        File changed = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-classpath":
+                    case "-cp":
+                        List<File> classpath = new ArrayList<>();
+                        for (String entry : value(args, ++i).split(File.pathSeparator)) {
+                            classpath.add(new File(entry));
+                        }
+                        builder.classpath(classpath);
+                        break;
+                    case "-threads":
+                        builder.parallelism(intValue(args, ++i));
+                        break;
+                    case "-cache":
+                        builder.cacheFile(new File(value(args, ++i)));
+                        break;
+                    case "-exclude":
+                        builder.excludePackages(Splitter.on(',').split(value(args, ++i)));
+                        break;
+                    case "-include":
+                        builder.includePackages(Splitter.on(',').split(value(args, ++i)));
+                        break;
+                    case "-packages":
+                        builder.packageFile(new File(value(args, ++i)));
+                        break;
+                    case "-missing":
+                        builder.missingTypePolicy(
+                                MissingTypes.parsePolicy("-missing", value(args, ++i)));
+                        break;
+                    case "-output":
+                        output = new File(value(args, ++i));
+                        break;
+                    case "-baseline":
+                        builder.baseline(new File(value(args, ++i)));
+                        break;
+                    case "-record-baseline":
+                        recordBaseline = new File(value(args, ++i));
+                        builder.recordBaseline(recordBaseline);
+                        break;
+                    case "-sarif":
+                        sarif = new File(value(args, ++i));
+                        break;
+                    case "-watch":
+                        watch = true;
+                        break;
+                    case "-shard":
+                        shard = new File(value(args, ++i));
+                        break;
+                    case "-merge":
+                        merge = true;
+                        break;
+                    case "-deps":
+                        dependencyIndex = new File(value(args, ++i));
+                        builder.dependencyIndex(dependencyIndex);
+                        break;
+                    case "-changed":
+                        changed = new File(value(args, ++i));
+                        break;
+                    case "-exports":
+                        builder.exportedPackages(Splitter.on(',').split(value(args, ++i)));
+                        break;
+                    case "-module-exports":
+                        builder.moduleExports();
+                        break;
+                    case "-prefetch":
+                        builder.prefetchThreads(intValue(args, ++i));
+                        break;
+                    case "-census":
+                        builder.censusDirectory(new File(value(args, ++i)));
+                        break;
+                    default:
+                        inputs.add(new File(args[i]));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // A missing or malformed option value, or one the builder rejects.
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+        if (inputs.isEmpty() || (watch && (sarif != null || recordBaseline != null))
+                || (changed != null && dependencyIndex == null)) {
+            printUsage();
+            System.exit(1);
+        }
+        if (shard != null) {
+            builder.build().scanShard(inputs, shard);
+            return;
+        }
+        final PrintWriter out = (output == null)
+                ? new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                : new PrintWriter(output, StandardCharsets.UTF_8.name());
+        if (watch) {
+            try {
+                builder.build().watch(inputs, new WatchListener() {
+                    @Override
+                    public void findingsChanged(Map<String, List<Finding>> findingsByClass) {
+                        for (List<Finding> findings : findingsByClass.values()) {
+                            for (Finding finding : findings) {
+                                out.println(finding.getMessage());
+                            }
+                        }
+                        out.flush();
+                    }
+                });
+            } finally {
+                if (output == null) {
+                    out.flush();
+                } else {
+                    out.close();
+                }
+            }
+            return;
+        }
+        final SarifWriter sarifWriter = (sarif == null) ? null : new SarifWriter(sarif);
+        try {
+            FindingListener listener = new FindingListener() {
+                @Override
+                public void foundAntipattern(Finding finding) throws IOException {
+                    out.println(finding.getMessage());
+                    if (sarifWriter != null) {
+                        sarifWriter.foundAntipattern(finding);
+                    }
+                }
+            };
+            if (merge) {
+                builder.build().merge(inputs, listener);
+            } else if (changed != null) {
+                List<String> changedClasses = new ArrayList<>();
+                for (String line : Files.readAllLines(changed.toPath(), StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty()) {
+                        changedClasses.add(line.trim());
+                    }
+                }
+                builder.build().scanChanged(inputs, changedClasses, listener);
+            } else {
+                builder.build().scan(inputs, listener);
+            }
+        } finally {
+            if (sarifWriter != null) {
+                sarifWriter.close();
+            }
+            if (output == null) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: AntipatternScanner [-classpath <path>] [-threads <n>] "
+                + "[-cache <file>] [-exclude <packages>] [-include <packages>] "
+                + "[-packages <file>] [-missing skip|warn_once|fail] [-output <file>] "
+                + "[-baseline <file>] [-record-baseline <file>] [-sarif <file>] "
+                + "[-deps <file> [-changed <file>]] [-exports <packages>] [-module-exports] "
+                + "[-prefetch <n>] [-census <directory>] <jar or directory>...");
+        System.err.println("       AntipatternScanner -watch [-classpath <path>] "
+                + "[-threads <n>] [-exclude <packages>] [-include <packages>] "
+                + "[-packages <file>] [-missing skip|warn_once|fail] [-output <file>] "
+                + "[-baseline <file>] <directory>...");
+        System.err.println("       AntipatternScanner -shard <file> [-classpath <path>] "
+                + "[-threads <n>] [-exclude <packages>] [-include <packages>] "
+                + "[-packages <file>] [-exports <packages>] [-module-exports] "
+                + "<jar or directory>...");
+        System.err.println("       AntipatternScanner -merge [options] <partial result>...");
+    }
+
+    /** The value of the option before {@code args[i]}, which must be present. */
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static int intValue(String[] args, int i) {
+        String value = value(args, i);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "Invalid " + args[i - 1] + " '" + value + "': expected a number", e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteStreams;
+
+import edu.umd.cs.findbugs.SystemProperties;
+
+/**
+ * The types a library's consumers can reach: the public types in its exported packages, as
+ * listed by the exports of a JPMS module-info class or configured directly. Packages match
+ * exactly, as in a module descriptor, so exporting {@code com.foo} does not export
+ * {@code com.foo.internal}. {@link FinalSignatureRule} skips every other type before looking at
+ * its methods. Instances are immutable and safe to share between threads.
+ */
+final class ApiSurface {
+
+    static final String PACKAGES_PROPERTY = "antipatterns.api.packages";
+    static final String MODULE_PROPERTY = "antipatterns.api.module";
+
+    /** Every type is checked; the default. */
+    static final ApiSurface ALL = new ApiSurface(null);
+
+    private static final String MODULE_INFO = "module-info.class";
+    private static final String VERSIONED_PREFIX = "META-INF/versions/";
+    private static final Splitter LIST_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    /** Dotted package names, or null if every type is checked. */
+    private final ImmutableSortedSet<String> packages;
+
+    private ApiSurface(ImmutableSortedSet<String> packages) {
+        this.packages = packages;
+    }
+
+    /** Checks only the public types in the given packages. */
+    static ApiSurface exporting(Iterable<String> packageNames) {
+        Set<String> packages = new TreeSet<>();
+        for (String packageName : packageNames) {
+            if (!packageName.trim().isEmpty()) {
+                packages.add(packageName.trim().replace('/', '.'));
+            }
+        }
+        return new ApiSurface(ImmutableSortedSet.copyOf(packages));
+    }
+
+    /**
+     * Every type, unless the {@code antipatterns.api.packages} system property lists exported
+     * packages (comma-separated), or {@code antipatterns.api.module} names a module-info class,
+     * or a jar or directory containing one, whose exports to use. Given both, either's packages
+     * are checked.
+     */
+    static ApiSurface fromSystemProperties() {
+        String packageList = SystemProperties.getProperty(PACKAGES_PROPERTY);
+        String module = SystemProperties.getProperty(MODULE_PROPERTY);
+        if (packageList == null && module == null) {
+            return ALL;
+        }
+        Set<String> packages = new TreeSet<>();
+        if (packageList != null) {
+            packages.addAll(LIST_SPLITTER.splitToList(packageList));
+        }
+        if (module != null) {
+            try {
+                if (!readModuleExports(new File(module), packages)) {
+                    throw new IllegalArgumentException("No " + MODULE_INFO + " in " + module);
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(
+                        "Could not read " + MODULE_PROPERTY + " " + module, e);
+            }
+        }
+        return exporting(packages);
+    }
+
+    /**
+     * Adds the packages exported by the module-info class in a jar or directory, or given
+     * directly, to {@code packages}. Versioned module descriptors in a multi-release jar count
+     * too. Returns false if there is no module-info class to read.
+     */
+    static boolean readModuleExports(File input, Collection<String> packages) throws IOException {
+        if (input.isDirectory()) {
+            File moduleInfo = new File(input, MODULE_INFO);
+            if (!moduleInfo.isFile()) {
+                return false;
+            }
+            packages.addAll(ClassHeader.parse(ByteBuffer.wrap(
+                    Files.readAllBytes(moduleInfo.toPath()))).getExportedPackages());
+            return true;
+        }
+        if (input.getName().endsWith(".class")) {
+            packages.addAll(ClassHeader.parse(
+                    ByteBuffer.wrap(Files.readAllBytes(input.toPath()))).getExportedPackages());
+            return true;
+        }
+        boolean found = false;
+        try (JarFile jar = new JarFile(input)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.getName().equals(MODULE_INFO) || (entry.getName().startsWith(
+                        VERSIONED_PREFIX) && entry.getName().endsWith("/" + MODULE_INFO))) {
+                    try (InputStream in = jar.getInputStream(entry)) {
+                        packages.addAll(ClassHeader.parse(ByteBuffer.wrap(
+                                ByteStreams.toByteArray(in))).getExportedPackages());
+                    }
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /** False if every type is checked. */
+    boolean isRestricted() {
+        return packages != null;
+    }
+
+    /** The exported packages, or null if every type is checked. */
+    ImmutableSortedSet<String> getPackages() {
+        return packages;
+    }
+
+    /** A surface exporting both surfaces' packages. */
+    ApiSurface union(ApiSurface other) {
+        if (packages == null || other.packages == null) {
+            return ALL;
+        }
+        return new ApiSurface(ImmutableSortedSet.<String>naturalOrder()
+                .addAll(packages).addAll(other.packages).build());
+    }
+
+    /** True if consumers can reach the class: it is public, and its package exported. */
+    boolean includes(ClassHeader obj) {
+        if (packages == null) {
+            return true;
+        }
+        if (!obj.isPublic()) {
+            return false;
+        }
+        String className = obj.getClassName();
+        int lastDot = className.lastIndexOf('.');
+        return packages.contains((lastDot < 0) ? "" : className.substring(0, lastDot));
+    }
+
+    @Override
+    public String toString() {
+        return (packages == null) ? "all" : "exports " + Joiner.on(',').join(packages);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import edu.umd.cs.findbugs.SystemProperties;
+
+/**
+ * Existing findings to suppress, so the detectors can be rolled out over a codebase with many
+ * violations and only report new ones. Each finding is identified by a 64-bit fingerprint of its
+ * pattern, class, method and parameter index, so findings survive unrelated edits to a class.
+ *
+ * <p>The baseline file holds the fingerprints sorted, eight bytes apiece. When loaded they are
+ * kept in a {@link LongHashSet}, so checking a finding costs one hash and a constant-time lookup
+ * however large the baseline is. Loaded baselines are immutable, so safe to share between
+ * threads; recorders are synchronized.
+ */
+final class Baseline {
+
+    static final String FILE_PROPERTY = "antipatterns.baseline";
+    static final String RECORD_PROPERTY = "antipatterns.baseline.record";
+
+    static final Baseline EMPTY = new Baseline(new LongHashSet(0));
+
+    private static final int MAGIC = 0x50544142;  // "PTAB"
+    private static final int VERSION = 1;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final LongHashSet fingerprints;
+
+    private Baseline(LongHashSet fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    static long fingerprint(
+            String pattern, String className, String methodName, String methodSignature, int parameter) {
+        Hasher hasher = HASH_FUNCTION.newHasher()
+                .putString(pattern, StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(className, StandardCharsets.UTF_8).putByte((byte) 0);
+        if (methodName != null) {
+            hasher.putString(methodName, StandardCharsets.UTF_8)
+                    .putString(methodSignature, StandardCharsets.UTF_8);
+        }
+        return hasher.putByte((byte) 0).putInt(parameter).hash().asLong();
+    }
+
+    static long fingerprint(Finding finding) {
+        return fingerprint(finding.getPattern().getBugType(), finding.getClassName(),
+                finding.getMethodName(), finding.getMethodSignature(), finding.getParameter());
+    }
+
+    /** Loads the baseline named by the {@code antipatterns.baseline} system property, if set. */
+    static Baseline fromSystemProperties() {
+        String file = SystemProperties.getProperty(FILE_PROPERTY);
+        if (file == null) {
+            return EMPTY;
+        }
+        try {
+            return load(new File(file));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + FILE_PROPERTY + " " + file, e);
+        }
+    }
+
+    static Baseline load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not an antipatterns baseline");
+            }
+            int count = in.readInt();
+            LongHashSet fingerprints = new LongHashSet(count);
+            for (int i = 0; i < count; i++) {
+                fingerprints.add(in.readLong());
+            }
+            return new Baseline(fingerprints);
+        }
+    }
+
+    boolean contains(long fingerprint) {
+        return fingerprints.contains(fingerprint);
+    }
+
+    int size() {
+        return fingerprints.size();
+    }
+
+    /** Collects the fingerprints of every finding made during a run, to write a new baseline. */
+    static final class Recorder {
+        private final LongHashSet fingerprints = new LongHashSet(1024);
+
+        synchronized void record(long fingerprint) {
+            fingerprints.add(fingerprint);
+        }
+
+        /** Writes the fingerprints recorded so far, sorted, replacing the file atomically. */
+        synchronized void save(File file) throws IOException {
+            long[] sorted = fingerprints.toSortedArray();
+            File temp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sorted.length);
+                for (long fingerprint : sorted) {
+                    out.writeLong(fingerprint);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
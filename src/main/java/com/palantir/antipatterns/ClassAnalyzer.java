@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Runs both detectors' rules over classes outside of the FindBugs engine. Verdicts on referenced
+ * types are shared by every class analyzed, so one analyzer should be used per run. Safe to call
+ * from multiple threads.
+ */
+class ClassAnalyzer {
+
+    private static final String OBJECT = Object.class.getName();
+
+    private final ClassLookup lookup;
+    private final HierarchyIndex index;
+    private final ExtendsConcreteTypeRule extendsConcreteTypeRule;
+    private final FinalSignatureRule finalSignatureRule;
+    private final ConcurrentMap<String, List<String>> ancestry = new ConcurrentHashMap<>();
+    private final PrefetchingLookup prefetcher;
+
+    ClassAnalyzer(ClassLookup lookup, PackageFilter packageFilter, ApiSurface apiSurface) {
+        this(lookup, new HierarchyIndex(), packageFilter, apiSurface, null);
+    }
+
+    /**
+     * @param index facts about classes, e.g. from dependency jars' censuses, consulted before
+     *     {@code lookup}
+     * @param prefetcher if not null, the lookup underlying {@code lookup}; each class's unresolved
+     *     types are prefetched through it before they are needed
+     */
+    ClassAnalyzer(ClassLookup lookup, HierarchyIndex index, PackageFilter packageFilter,
+            ApiSurface apiSurface, PrefetchingLookup prefetcher) {
+        this.lookup = index.answeringAccessFlags(lookup);
+        this.index = index;
+        this.extendsConcreteTypeRule = new ExtendsConcreteTypeRule(index);
+        this.finalSignatureRule = new FinalSignatureRule(packageFilter, apiSurface);
+        this.prefetcher = prefetcher;
+    }
+
+    void analyze(final ClassHeader obj, final List<Finding> findings) {
+        prefetch(obj);
+        final String className = obj.getClassName();
+        if (extendsConcreteTypeRule.extendsConcreteType(obj, lookup)) {
+            findings.add(Finding.extendsConcreteType(className, obj.getSuperclassName()));
+        }
+        finalSignatureRule.check(obj, lookup, new FinalSignatureRule.Listener() {
+            @Override
+            public void finalTypeReturn(int method, String type) {
+                findings.add(Finding.finalTypeReturn(className,
+                        obj.getMethodName(method), obj.getMethodDescriptor(method), type));
+            }
+
+            @Override
+            public void finalTypeConstructor(int method) {
+                findings.add(Finding.finalTypeConstructor(className,
+                        obj.getMethodName(method), obj.getMethodDescriptor(method)));
+            }
+
+            @Override
+            public void finalTypeParam(int method, int param, String type) {
+                findings.add(Finding.finalTypeParam(className,
+                        obj.getMethodName(method), obj.getMethodDescriptor(method), param, type));
+            }
+        });
+    }
+
+    /**
+     * True if any verdict behind {@code obj}'s findings involved a type that could not be found,
+     * so they might differ once that type is on the classpath.
+     */
+    boolean dependsOnMissingTypes(ClassHeader obj) {
+        prefetch(obj);
+        return extendsConcreteTypeRule.dependsOnMissingTypes(obj, lookup)
+                || finalSignatureRule.dependsOnMissingTypes(obj, lookup);
+    }
+
+    /**
+     * Forgets the verdicts that depend on the named classes, so classes analyzed afterwards see
+     * their current class files.
+     */
+    void invalidate(Collection<String> classNames) {
+        extendsConcreteTypeRule.invalidate(classNames);
+        finalSignatureRule.invalidate(classNames);
+        ancestry.clear();
+    }
+
+    /**
+     * Adds every type whose verdicts affect {@code obj}'s findings: its whole superclass chain,
+     * since any ancestor can change whether the class is a Throwable, and every type in its public
+     * and protected signatures.
+     */
+    void collectDependencies(ClassHeader obj, Collection<String> types) {
+        String superclassName = obj.getSuperclassName();
+        if (superclassName != null && !OBJECT.equals(superclassName)) {
+            types.addAll(ancestors(superclassName));
+        }
+        finalSignatureRule.collectReferencedTypes(obj, types);
+    }
+
+    /**
+     * Starts reading a class file that will be analyzed shortly, and the types it references, on
+     * the prefetcher's threads. Does nothing if not prefetching.
+     */
+    void prefetch(final ClassFileSet.ClassFile classFile) {
+        if (prefetcher == null) {
+            return;
+        }
+        prefetcher.prefetchClassFile(classFile, new Callable<ClassHeader>() {
+            @Override
+            public ClassHeader call() throws IOException {
+                ClassHeader header = ClassHeader.parse(classFile.read());
+                prefetch(header);
+                return header;
+            }
+        });
+    }
+
+    /** Reads and parses a class file, taking it from the prefetcher if it was read ahead. */
+    ClassHeader read(final ClassFileSet.ClassFile classFile) throws IOException {
+        if (prefetcher == null) {
+            return ClassHeader.parse(classFile.read());
+        }
+        return prefetcher.readClassFile(classFile, new Callable<ClassHeader>() {
+            @Override
+            public ClassHeader call() throws IOException {
+                return ClassHeader.parse(classFile.read());
+            }
+        });
+    }
+
+    /**
+     * Starts reading every type the rules will look up for {@code obj}, so they load concurrently
+     * rather than one by one as each verdict is reached.
+     */
+    private void prefetch(ClassHeader obj) {
+        if (prefetcher == null) {
+            return;
+        }
+        List<String> types = new ArrayList<>();
+        extendsConcreteTypeRule.collectUnresolvedTypes(obj, types);
+        for (String type : types) {
+            prefetcher.prefetchClass(type);
+        }
+        types.clear();
+        finalSignatureRule.collectUnresolvedTypes(obj, types);
+        for (String type : types) {
+            if (!index.contains(type)) {
+                prefetcher.prefetchAccessFlags(type);
+            }
+        }
+    }
+
+    /** The named class and its superclasses, excluding Object. */
+    private List<String> ancestors(String className) {
+        List<String> ancestors = ancestry.get(className);
+        if (ancestors != null) {
+            return ancestors;
+        }
+        String superclassName;
+        try {
+            superclassName = index.getClassInfo(className, lookup).getSuperclassName();
+        } catch (ClassNotFoundException e) {
+            superclassName = null;
+        }
+        ImmutableList.Builder<String> builder = ImmutableList.<String>builder().add(className);
+        if (superclassName != null && !OBJECT.equals(superclassName)) {
+            builder.addAll(ancestors(superclassName));
+        }
+        ancestors = builder.build();
+        ancestry.putIfAbsent(className, ancestors);
+        return ancestors;
+    }
+}
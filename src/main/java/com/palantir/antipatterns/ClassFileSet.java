@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closer;
+
+/**
+ * The class files in a set of jars and directories. Entries are listed up front, but their
+ * contents are only read on demand, so they can be streamed through analysis in parallel.
+ * Module descriptors are left out, as are the release-specific classes of multi-release jars, so
+ * each class is analyzed once, in its base version.
+ */
+class ClassFileSet implements Closeable {
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String MODULE_INFO = "module-info.class";
+    private static final String VERSIONED_PREFIX = "META-INF/versions/";
+
+    /**
+     * Class files at least this large are memory-mapped rather than copied onto the heap. Mapping
+     * every small file would quickly exhaust the process's map count, as mappings are only
+     * released when their buffers are garbage collected.
+     */
+    private static final int MAP_THRESHOLD = 16 * 1024;
+
+    /** A single class file, in a directory or a jar. */
+    abstract static class ClassFile {
+
+        /** A human-readable location, for error messages. */
+        abstract String getLocation();
+
+        abstract ByteBuffer read() throws IOException;
+
+        @Override
+        public String toString() {
+            return getLocation();
+        }
+    }
+
+    private final Closer closer;
+    private final List<ClassFile> classFiles;
+
+    private ClassFileSet(Closer closer, List<ClassFile> classFiles) {
+        this.closer = closer;
+        this.classFiles = Collections.unmodifiableList(classFiles);
+    }
+
+    static ClassFileSet open(Iterable<File> inputs) throws IOException {
+        Closer closer = Closer.create();
+        List<ClassFile> classFiles = new ArrayList<>();
+        try {
+            for (File input : inputs) {
+                if (input.isDirectory()) {
+                    addDirectory(input.toPath(), classFiles);
+                } else if (input.getName().endsWith(CLASS_SUFFIX)) {
+                    if (isAnalyzed(input.getName())) {
+                        classFiles.add(new DirectoryClassFile(input.toPath()));
+                    }
+                } else {
+                    addJar(closer.register(new JarFile(input)), classFiles);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            closer.close();
+            throw e;
+        }
+        return new ClassFileSet(closer, classFiles);
+    }
+
+    List<ClassFile> getClassFiles() {
+        return classFiles;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closer.close();
+    }
+
+    /** Wraps a class file that is already in memory. */
+    static ClassFile inMemory(String location, byte[] bytes) {
+        return new InMemoryClassFile(location, bytes);
+    }
+
+    /**
+     * True if the file at {@code path}, relative to its jar or directory and separated by
+     * slashes, is a class file to analyze.
+     */
+    static boolean isAnalyzed(String path) {
+        return path.endsWith(CLASS_SUFFIX) && !path.startsWith(VERSIONED_PREFIX)
+                && !path.equals(MODULE_INFO) && !path.endsWith("/" + MODULE_INFO);
+    }
+
+    /** Reads a class file from disk, memory-mapping it if it is large. */
+    static ByteBuffer readClassFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                return channel.map(MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the buffer is full.
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static void addDirectory(final Path directory, final List<ClassFile> classFiles)
+            throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (isAnalyzed(relativePath(directory, file))) {
+                    paths.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // Directory iteration order is platform-dependent; sort for reproducible output.
+        Collections.sort(paths);
+        for (Path path : paths) {
+            classFiles.add(new DirectoryClassFile(path));
+        }
+    }
+
+    private static void addJar(JarFile jar, List<ClassFile> classFiles) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && isAnalyzed(entry.getName())) {
+                classFiles.add(new JarClassFile(jar, entry));
+            }
+        }
+    }
+
+    /** The path of {@code file} below {@code directory}, separated by slashes. */
+    static String relativePath(Path directory, Path file) {
+        return Joiner.on('/').join(directory.relativize(file));
+    }
+
+    private static class DirectoryClassFile extends ClassFile {
+        private final Path path;
+
+        DirectoryClassFile(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        String getLocation() {
+            return path.toString();
+        }
+
+        @Override
+        ByteBuffer read() throws IOException {
+            return readClassFile(path);
+        }
+    }
+
+    private static class JarClassFile extends ClassFile {
+        private final JarFile jar;
+        private final JarEntry entry;
+
+        JarClassFile(JarFile jar, JarEntry entry) {
+            this.jar = jar;
+            this.entry = entry;
+        }
+
+        @Override
+        String getLocation() {
+            return jar.getName() + "!/" + entry.getName();
+        }
+
+        @Override
+        ByteBuffer read() throws IOException {
+            // Jar entries are usually compressed, so cannot be mapped directly.
+            try (InputStream in = jar.getInputStream(entry)) {
+                return ByteBuffer.wrap(ByteStreams.toByteArray(in));
+            }
+        }
+    }
+
+    private static class InMemoryClassFile extends ClassFile {
+        private final String location;
+        private final byte[] bytes;
+
+        InMemoryClassFile(String location, byte[] bytes) {
+            this.location = location;
+            this.bytes = bytes;
+        }
+
+        @Override
+        String getLocation() {
+            return location;
+        }
+
+        @Override
+        ByteBuffer read() {
+            return ByteBuffer.wrap(bytes);
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static org.apache.bcel.Constants.CONSTRUCTOR_NAME;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A lightweight view of a class file, decoding only what the detectors need: the class's access
+ * flags, its name and superclass, and the names, access flags and descriptors of its methods.
+ *
+ * <p>Parsing walks the constant pool once to index its entries, but decodes no strings until they
+ * are asked for, and does not look at fields or methods until {@link #getMethodCount()} or a
+ * related method is first called. Instances hold on to the underlying buffer, so should not be
+ * retained after analysis; they are not safe to share between threads.
+ */
+final class ClassHeader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PROTECTED = 0x0004;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_INTERFACE = 0x0200;
+    static final int ACC_ABSTRACT = 0x0400;
+    static final int ACC_SYNTHETIC = 0x1000;
+    static final int ACC_ENUM = 0x4000;
+    static final int ACC_MODULE = 0x8000;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final ByteBuffer buffer;
+    private final int[] constantOffsets;
+    private final int accessFlags;
+    private final int thisClass;
+    private final int superClass;
+    private final int fieldsOffset;
+
+    private int[] methodOffsets;
+    private boolean syntheticAttribute;
+    /** The offset of the Module attribute's contents, or 0 if there is none. */
+    private int moduleAttribute;
+    private AsciiView descriptorView;
+
+    private ClassHeader(
+            ByteBuffer buffer,
+            int[] constantOffsets,
+            int accessFlags,
+            int thisClass,
+            int superClass,
+            int fieldsOffset) {
+        this.buffer = buffer;
+        this.constantOffsets = constantOffsets;
+        this.accessFlags = accessFlags;
+        this.thisClass = thisClass;
+        this.superClass = superClass;
+        this.fieldsOffset = fieldsOffset;
+    }
+
+    /**
+     * Parses the class file between the buffer's position and limit. The buffer's position is not
+     * modified. Fields, methods and attributes are only read when first asked about, and a
+     * truncated table then throws the same IllegalArgumentException.
+     *
+     * @throws IllegalArgumentException if the buffer does not hold a valid class file
+     */
+    static ClassHeader parse(ByteBuffer buffer) {
+        ByteBuffer classFile = buffer.slice();
+        try {
+            if (classFile.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("Not a class file");
+            }
+            int constantCount = u2(classFile, 8);
+            int[] constantOffsets = new int[constantCount];
+            int offset = 10;
+            for (int i = 1; i < constantCount; i++) {
+                constantOffsets[i] = offset;
+                int tag = u1(classFile, offset);
+                offset += 1 + constantLength(classFile, offset, tag);
+                if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) {
+                    // Eight-byte constants take up two entries in the pool.
+                    i++;
+                }
+            }
+            int accessFlags = u2(classFile, offset);
+            int thisClass = u2(classFile, offset + 2);
+            int superClass = u2(classFile, offset + 4);
+            int interfaceCount = u2(classFile, offset + 6);
+            int fieldsOffset = offset + 8 + 2 * interfaceCount;
+            return new ClassHeader(
+                    classFile, constantOffsets, accessFlags, thisClass, superClass, fieldsOffset);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        }
+    }
+
+    /**
+     * Reads just the access flags from a class file, which follow the constant pool. Nothing past
+     * them is read, and the constant pool is skipped rather than retained.
+     *
+     * @throws IOException if the stream cannot be read or does not hold a valid class file
+     */
+    static int readAccessFlags(InputStream classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(classFile));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        ByteStreams.skipFully(in, 4);
+        int constantCount = in.readUnsignedShort();
+        for (int i = 1; i < constantCount; i++) {
+            int tag = in.readUnsignedByte();
+            try {
+                ByteStreams.skipFully(in, (tag == CONSTANT_UTF8)
+                        ? in.readUnsignedShort() : fixedConstantLength(tag));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) {
+                i++;
+            }
+        }
+        return in.readUnsignedShort();
+    }
+
+    int getAccessFlags() {
+        return accessFlags;
+    }
+
+    boolean isPublic() {
+        return (accessFlags & ACC_PUBLIC) != 0;
+    }
+
+    boolean isFinal() {
+        return (accessFlags & ACC_FINAL) != 0;
+    }
+
+    boolean isInterface() {
+        return (accessFlags & ACC_INTERFACE) != 0;
+    }
+
+    boolean isAbstract() {
+        return (accessFlags & ACC_ABSTRACT) != 0;
+    }
+
+    boolean isEnum() {
+        return (accessFlags & ACC_ENUM) != 0;
+    }
+
+    /** True for a module-info class. */
+    boolean isModule() {
+        return (accessFlags & ACC_MODULE) != 0;
+    }
+
+    /** True if the class is flagged synthetic or has a Synthetic attribute, as in BCELUtil. */
+    boolean isSynthetic() {
+        if ((accessFlags & ACC_SYNTHETIC) != 0) {
+            return true;
+        }
+        indexMembers();
+        return syntheticAttribute;
+    }
+
+    /** The dotted name of this class, e.g. java.lang.String. */
+    String getClassName() {
+        return className(thisClass);
+    }
+
+    /** The dotted name of this class's superclass, or null for java.lang.Object. */
+    String getSuperclassName() {
+        return (superClass == 0) ? null : className(superClass);
+    }
+
+    int getMethodCount() {
+        indexMembers();
+        return methodOffsets.length;
+    }
+
+    int getMethodAccessFlags(int method) {
+        indexMembers();
+        return u2(buffer, methodOffsets[method]);
+    }
+
+    boolean isMethodPublic(int method) {
+        return (getMethodAccessFlags(method) & ACC_PUBLIC) != 0;
+    }
+
+    boolean isMethodProtected(int method) {
+        return (getMethodAccessFlags(method) & ACC_PROTECTED) != 0;
+    }
+
+    String getMethodName(int method) {
+        indexMembers();
+        return utf8(u2(buffer, methodOffsets[method] + 2));
+    }
+
+    /** The method's JVM descriptor, e.g. (Ljava/lang/String;)V. */
+    String getMethodDescriptor(int method) {
+        indexMembers();
+        return utf8(u2(buffer, methodOffsets[method] + 4));
+    }
+
+    /**
+     * The method's JVM descriptor, read in place from the constant pool rather than decoded into a
+     * new string as {@link #getMethodDescriptor} does. The returned view is reused by the next
+     * call, so must not be retained.
+     */
+    CharSequence getMethodDescriptorView(int method) {
+        indexMembers();
+        int index = u2(buffer, methodOffsets[method] + 4);
+        int offset = constantOffsets[index];
+        int length = u2(buffer, offset + 1);
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + 3 + i) < 0) {
+                // Multi-byte characters in a type name; rare enough to simply decode.
+                return utf8(index);
+            }
+        }
+        if (descriptorView == null) {
+            descriptorView = new AsciiView();
+        }
+        descriptorView.reset(offset + 3, length);
+        return descriptorView;
+    }
+
+    boolean isConstructor(int method) {
+        indexMembers();
+        return utf8Equals(u2(buffer, methodOffsets[method] + 2), CONSTRUCTOR_NAME);
+    }
+
+    boolean hasProtectedConstructor() {
+        int methodCount = getMethodCount();
+        for (int i = 0; i < methodCount; i++) {
+            if (isConstructor(i) && isMethodProtected(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The dotted names of the packages a module-info class exports to every module. Qualified
+     * exports, to named modules only, are not part of the public API, so are left out. Empty for
+     * any other class.
+     */
+    List<String> getExportedPackages() {
+        indexMembers();
+        List<String> packages = new ArrayList<>();
+        if (moduleAttribute == 0) {
+            return packages;
+        }
+        // Skips the module's name, flags and version, then its requires table.
+        int offset = moduleAttribute + 6;
+        offset += 2 + 6 * u2(buffer, offset);
+        int exportCount = u2(buffer, offset);
+        offset += 2;
+        for (int i = 0; i < exportCount; i++) {
+            int targetCount = u2(buffer, offset + 4);
+            if (targetCount == 0) {
+                // A CONSTANT_Package is laid out like a CONSTANT_Class.
+                packages.add(className(u2(buffer, offset)));
+            }
+            offset += 6 + 2 * targetCount;
+        }
+        return packages;
+    }
+
+    /**
+     * Writes a minimal class file with this class's access flags, name, superclass and Synthetic
+     * attribute, plus either its public and protected methods or just its protected constructors.
+     * Parsed again, it answers every question the rules ask the same way, in a fraction of the
+     * bytes: there are no interfaces, fields, code or other attributes.
+     */
+    byte[] toSkeleton(boolean withSignatures) {
+        indexMembers();
+        ConstantPool pool = new ConstantPool();
+        int thisClassIndex = pool.classConstant(getClassName());
+        String superclassName = getSuperclassName();
+        int superClassIndex = (superclassName == null) ? 0 : pool.classConstant(superclassName);
+        int syntheticIndex = syntheticAttribute ? pool.utf8("Synthetic") : 0;
+        ByteArrayDataOutput methods = ByteStreams.newDataOutput();
+        int keptMethodCount = 0;
+        for (int method = 0; method < methodOffsets.length; method++) {
+            boolean keep = withSignatures
+                    ? isMethodPublic(method) || isMethodProtected(method)
+                    : isConstructor(method) && isMethodProtected(method);
+            if (keep) {
+                methods.writeShort(getMethodAccessFlags(method));
+                methods.writeShort(pool.utf8(getMethodName(method)));
+                methods.writeShort(pool.utf8(getMethodDescriptor(method)));
+                methods.writeShort(0);
+                keptMethodCount++;
+            }
+        }
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeInt(MAGIC);
+        out.writeInt(buffer.getInt(4));
+        pool.writeTo(out);
+        out.writeShort(accessFlags);
+        out.writeShort(thisClassIndex);
+        out.writeShort(superClassIndex);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(keptMethodCount);
+        out.write(methods.toByteArray());
+        if (syntheticIndex != 0) {
+            out.writeShort(1);
+            out.writeShort(syntheticIndex);
+            out.writeInt(0);
+        } else {
+            out.writeShort(0);
+        }
+        return out.toByteArray();
+    }
+
+    private void indexMembers() {
+        if (methodOffsets != null) {
+            return;
+        }
+        try {
+            int offset = fieldsOffset;
+            int fieldCount = u2(buffer, offset);
+            offset += 2;
+            for (int i = 0; i < fieldCount; i++) {
+                offset = skipMember(offset);
+            }
+            int[] offsets = new int[u2(buffer, offset)];
+            offset += 2;
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = offset;
+                offset = skipMember(offset);
+            }
+            int attributeCount = u2(buffer, offset);
+            offset += 2;
+            for (int i = 0; i < attributeCount; i++) {
+                if (utf8Equals(u2(buffer, offset), "Synthetic")) {
+                    syntheticAttribute = true;
+                } else if (utf8Equals(u2(buffer, offset), "Module")) {
+                    moduleAttribute = offset + 6;
+                }
+                offset += 6 + buffer.getInt(offset + 2);
+            }
+            // Attributes are skipped unread, so the last one may run past the end unnoticed.
+            if (offset < 0 || offset > buffer.limit()) {
+                throw new IllegalArgumentException("Truncated class file");
+            }
+            methodOffsets = offsets;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        }
+    }
+
+    /** Skips a field_info or method_info structure, returning the offset just past it. */
+    private int skipMember(int offset) {
+        int attributeCount = u2(buffer, offset + 6);
+        offset += 8;
+        for (int i = 0; i < attributeCount; i++) {
+            offset += 6 + buffer.getInt(offset + 2);
+        }
+        return offset;
+    }
+
+    private String className(int classIndex) {
+        return utf8(u2(buffer, constantOffsets[classIndex] + 1)).replace('/', '.');
+    }
+
+    /** Decodes a CONSTANT_Utf8 entry, which uses the JVM's modified UTF-8 encoding. */
+    private String utf8(int index) {
+        int offset = constantOffsets[index];
+        int length = u2(buffer, offset + 1);
+        offset += 3;
+        char[] chars = new char[length];
+        int count = 0;
+        for (int end = offset + length; offset < end; count++) {
+            int b = u1(buffer, offset++);
+            if (b < 0x80) {
+                chars[count] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[count] = (char) (((b & 0x1F) << 6) | (u1(buffer, offset++) & 0x3F));
+            } else {
+                int b2 = u1(buffer, offset++);
+                int b3 = u1(buffer, offset++);
+                chars[count] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /** Compares a CONSTANT_Utf8 entry against an ASCII string without decoding it. */
+    private boolean utf8Equals(int index, String ascii) {
+        int offset = constantOffsets[index];
+        int length = u2(buffer, offset + 1);
+        if (length != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + 3 + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** A window onto ASCII bytes in the class file. */
+    private final class AsciiView implements CharSequence {
+        private int start;
+        private int length;
+
+        void reset(int start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+            }
+            return (char) buffer.get(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) buffer.get(start + i);
+            }
+            return new String(chars);
+        }
+    }
+
+    /** Builds a constant pool of CONSTANT_Utf8 and CONSTANT_Class entries, for skeletons. */
+    private static final class ConstantPool {
+        private final Map<String, Integer> utf8Indexes = new HashMap<>();
+        private final ByteArrayDataOutput entries = ByteStreams.newDataOutput();
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = utf8Indexes.get(value);
+            if (index == null) {
+                index = count++;
+                entries.writeByte(CONSTANT_UTF8);
+                // Modified UTF-8, as the class file format expects.
+                entries.writeUTF(value);
+                utf8Indexes.put(value, index);
+            }
+            return index;
+        }
+
+        int classConstant(String className) {
+            int nameIndex = utf8(className.replace('.', '/'));
+            entries.writeByte(CONSTANT_CLASS);
+            entries.writeShort(nameIndex);
+            return count++;
+        }
+
+        void writeTo(ByteArrayDataOutput out) {
+            out.writeShort(count);
+            out.write(entries.toByteArray());
+        }
+    }
+
+    private static int constantLength(ByteBuffer buffer, int offset, int tag) {
+        return (tag == CONSTANT_UTF8) ? 2 + u2(buffer, offset + 1) : fixedConstantLength(tag);
+    }
+
+    /** The length of a constant pool entry other than CONSTANT_Utf8, excluding its tag. */
+    private static int fixedConstantLength(int tag) {
+        switch (tag) {
+            case CONSTANT_CLASS:
+            case CONSTANT_STRING:
+            case CONSTANT_METHOD_TYPE:
+            case CONSTANT_MODULE:
+            case CONSTANT_PACKAGE:
+                return 2;
+            case CONSTANT_METHOD_HANDLE:
+                return 3;
+            case CONSTANT_INTEGER:
+            case CONSTANT_FLOAT:
+            case CONSTANT_FIELDREF:
+            case CONSTANT_METHODREF:
+            case CONSTANT_INTERFACE_METHODREF:
+            case CONSTANT_NAME_AND_TYPE:
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKE_DYNAMIC:
+                return 4;
+            case CONSTANT_LONG:
+            case CONSTANT_DOUBLE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+        }
+    }
+
+    private static int u1(ByteBuffer buffer, int offset) {
+        return buffer.get(offset) & 0xFF;
+    }
+
+    private static int u2(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+/**
+ * Resolves referenced types by name, either through the FindBugs analysis cache or directly from
+ * a classpath when running standalone.
+ */
+interface ClassLookup {
+
+    ClassHeader lookupClass(String className) throws ClassNotFoundException;
+
+    /**
+     * Returns the class's access flags, as in {@link ClassHeader#getAccessFlags()}, reading as
+     * little of its class file as possible and retaining none of it.
+     */
+    int lookupAccessFlags(String className) throws ClassNotFoundException;
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Access flags and superclasses of a very large number of classes, in a few bytes per class
+ * beyond the name itself. Each class name is interned to an int id; the names are stored as
+ * UTF-8 in a single buffer, which can be kept off the Java heap, and found through an
+ * open-addressing table of ids. Superclass ids and flags are held in primitive arrays indexed by
+ * id, so no objects are retained per class. Safe to use from multiple threads.
+ */
+class ClassMetadataStore {
+
+    /** Set alongside the access flags of a class with a protected constructor. */
+    static final int PROTECTED_CONSTRUCTOR = 1 << 16;
+
+    /** No class has this id. */
+    static final int NONE = -1;
+
+    /** Set for names whose facts have been recorded, not just named as a superclass. */
+    private static final int KNOWN = 1 << 17;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final boolean offHeap;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ByteBuffer names;
+    /** The offset in {@link #names} just past each name. */
+    private int[] nameEnds = new int[INITIAL_CAPACITY];
+    private int[] superclasses = new int[INITIAL_CAPACITY];
+    private int[] flags = new int[INITIAL_CAPACITY];
+    /** Ids plus one, so zero marks a free slot. Kept at most half full. */
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int nameCount;
+    private int classCount;
+
+    /** @param offHeap whether to keep class names in direct memory */
+    ClassMetadataStore(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.names = allocate(INITIAL_CAPACITY * 32);
+    }
+
+    /** Records a class's access flags, optionally with {@link #PROTECTED_CONSTRUCTOR}. */
+    void put(String className, String superclassName, int classFlags) {
+        lock.writeLock().lock();
+        try {
+            int superclass = (superclassName == null) ? NONE : intern(encode(superclassName));
+            int id = intern(encode(className));
+            if ((flags[id] & KNOWN) == 0) {
+                classCount++;
+            }
+            superclasses[id] = superclass;
+            flags[id] = classFlags | KNOWN;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Returns the id of a class whose facts have been recorded, or {@link #NONE}. */
+    int find(String className) {
+        byte[] name = encode(className);
+        lock.readLock().lock();
+        try {
+            int id = lookup(name, hash(name));
+            return (id != NONE && (flags[id] & KNOWN) != 0) ? id : NONE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    String getName(int id) {
+        lock.readLock().lock();
+        try {
+            int start = (id == 0) ? 0 : nameEnds[id - 1];
+            byte[] name = new byte[nameEnds[id] - start];
+            ByteBuffer view = names.duplicate();
+            view.position(start);
+            view.get(name);
+            return new String(name, StandardCharsets.UTF_8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The id of the class's superclass, or {@link #NONE} for java.lang.Object. */
+    int getSuperclass(int id) {
+        lock.readLock().lock();
+        try {
+            return superclasses[id];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The class's access flags, and {@link #PROTECTED_CONSTRUCTOR} if it has one. */
+    int getFlags(int id) {
+        lock.readLock().lock();
+        try {
+            return flags[id] & ~KNOWN;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The number of classes whose facts have been recorded. */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return classCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The memory used by the store's buffers and arrays, in bytes. */
+    long getByteSize() {
+        lock.readLock().lock();
+        try {
+            return names.capacity()
+                    + 4L * (nameEnds.length + superclasses.length + flags.length + table.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return "ClassMetadataStore{classes=" + classCount + ", names=" + nameCount
+                    + ", bytes=" + getByteSize() + (offHeap ? ", offHeap" : "") + "}";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Returns the id of a name, adding it if new. Call with the write lock held. */
+    private int intern(byte[] name) {
+        int hash = hash(name);
+        int id = lookup(name, hash);
+        if (id != NONE) {
+            return id;
+        }
+        id = nameCount++;
+        if (id == nameEnds.length) {
+            int capacity = nameEnds.length * 2;
+            nameEnds = Arrays.copyOf(nameEnds, capacity);
+            superclasses = Arrays.copyOf(superclasses, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        int start = (id == 0) ? 0 : nameEnds[id - 1];
+        if (names.capacity() - start < name.length) {
+            ByteBuffer grown = allocate(Math.max(names.capacity() * 2, start + name.length));
+            ByteBuffer used = names.duplicate();
+            used.position(0).limit(start);
+            grown.put(used);
+            names = grown;
+        }
+        names.position(start);
+        names.put(name);
+        nameEnds[id] = start + name.length;
+        superclasses[id] = NONE;
+        if (nameCount * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        insert(id, hash);
+        return id;
+    }
+
+    private int lookup(byte[] name, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (nameEquals(id, name)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    private void insert(int id, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        byte[] name = new byte[0];
+        for (int id = 0; id < nameCount - 1; id++) {
+            int start = (id == 0) ? 0 : nameEnds[id - 1];
+            int length = nameEnds[id] - start;
+            if (name.length != length) {
+                name = new byte[length];
+            }
+            ByteBuffer view = names.duplicate();
+            view.position(start);
+            view.get(name);
+            insert(id, hash(name));
+        }
+    }
+
+    private boolean nameEquals(int id, byte[] name) {
+        int start = (id == 0) ? 0 : nameEnds[id - 1];
+        if (nameEnds[id] - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (names.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static byte[] encode(String className) {
+        return className.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int hash(byte[] name) {
+        // Spread the bits, as package prefixes make the low bits of Arrays.hashCode similar.
+        int hash = Arrays.hashCode(name) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Keeps the findings for directories of class files up to date as classes are recompiled. After
+ * an initial scan, a {@link WatchService} reports class files as they are written or deleted, and
+ * only those classes are analyzed again, along with any class whose findings depended on them,
+ * found from a {@link DependencyIndex} kept in memory. The lookup and verdict caches live as long
+ * as the watcher, and only verdicts on the changed classes themselves are dropped, so an edit is
+ * checked in milliseconds.
+ */
+class ClassWatcher implements Closeable {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * How long the directories must be quiet before a batch of changes is analyzed, as a compiler
+     * writes many class files in quick succession.
+     */
+    private static final long SETTLE_MILLIS = 20;
+
+    /** Findings are collected per class instead of through ShardedAnalysis's buffers. */
+    private static final FindingListener NO_FINDINGS = new FindingListener() {
+        @Override
+        public void foundAntipattern(Finding finding) {}
+    };
+
+    private final List<Path> roots;
+    private final ClassAnalyzer analyzer;
+    private final MissingTypes missingTypes;
+    private final int parallelism;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    /** The class files seen so far, so deleted directories can be accounted for. */
+    private final Set<Path> classFiles = new HashSet<>();
+    /** Only the dependencies are used; findings are never replayed from it. */
+    private final DependencyIndex dependencyIndex = new DependencyIndex("");
+
+    ClassWatcher(List<Path> roots, ClassAnalyzer analyzer, MissingTypes missingTypes,
+            int parallelism) throws IOException {
+        this.roots = ImmutableList.copyOf(roots);
+        this.analyzer = analyzer;
+        this.missingTypes = missingTypes;
+        this.parallelism = parallelism;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Analyzes every class, then each batch of changes as it happens, until the thread is
+     * interrupted or the watcher closed.
+     */
+    void run(WatchListener listener) throws IOException, InterruptedException {
+        Set<Path> changed = new TreeSet<>();
+        for (Path root : roots) {
+            register(root, changed);
+        }
+        analyze(changed, listener);
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                long start = System.nanoTime();
+                changed = new TreeSet<>();
+                do {
+                    collectChanges(key, changed);
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                if (!changed.isEmpty()) {
+                    int changedCount = changed.size();
+                    int dependentCount = analyze(changed, listener);
+                    System.err.println("Analyzed " + changedCount
+                            + (changedCount == 1 ? " changed class" : " changed classes")
+                            + (dependentCount == 0 ? "" : " and " + dependentCount
+                                    + (dependentCount == 1 ? " dependent" : " dependents"))
+                            + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                            + " ms");
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed from another thread.
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void collectChanges(WatchKey key, Set<Path> changed) throws IOException {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // Events were lost, so look at every class file again.
+                changed.addAll(classFiles);
+                for (Path root : roots) {
+                    register(root, changed);
+                }
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (isClassFile(path)) {
+                changed.add(path);
+            } else if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                // Class files may have been written before the directory could be registered.
+                register(path, changed);
+            } else if (event.kind() == ENTRY_DELETE) {
+                for (Path classFile : classFiles) {
+                    if (classFile.startsWith(path)) {
+                        changed.add(classFile);
+                    }
+                }
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /** Watches a directory tree, adding the class files already in it to {@code found}. */
+    private void register(Path directory, final Set<Path> found) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                directories.put(
+                        dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (isClassFile(file)) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Analyzes the changed classes and the classes depending on them, which are added to
+     * {@code changed}. Returns the number of dependents added.
+     */
+    private int analyze(Set<Path> changed, WatchListener listener) throws IOException {
+        Set<String> changedNames = new HashSet<>();
+        for (Path path : changed) {
+            changedNames.add(className(path));
+        }
+        int dependentCount = 0;
+        for (String location : dependencyIndex.getAffectedLocations(changedNames)) {
+            if (changed.add(Paths.get(location))) {
+                dependentCount++;
+            }
+        }
+        Map<String, List<Finding>> findingsByClass = new LinkedHashMap<>();
+        final Map<String, List<Finding>> findingsByLocation = new HashMap<>();
+        List<File> existing = new ArrayList<>();
+        for (Path path : changed) {
+            List<Finding> findings = new ArrayList<>();
+            findingsByClass.put(className(path), findings);
+            if (Files.exists(path)) {
+                classFiles.add(path);
+                existing.add(path.toFile());
+                findingsByLocation.put(path.toString(), findings);
+            } else {
+                classFiles.remove(path);
+                dependencyIndex.remove(path.toString());
+            }
+        }
+        analyzer.invalidate(findingsByClass.keySet());
+        missingTypes.forget(findingsByClass.keySet());
+        ShardedAnalysis.ClassTask<Finding> task = new ShardedAnalysis.ClassTask<Finding>() {
+            @Override
+            public void analyze(ClassFileSet.ClassFile classFile, List<Finding> unused) {
+                List<Finding> findings = findingsByLocation.get(classFile.getLocation());
+                try {
+                    ClassHeader header = ClassHeader.parse(classFile.read());
+                    analyzer.analyze(header, findings);
+                    Set<String> dependencies = new TreeSet<>();
+                    analyzer.collectDependencies(header, dependencies);
+                    dependencyIndex.put(classFile.getLocation(), new DependencyIndex.Entry(
+                            header.getClassName(), dependencies, ImmutableList.<Finding>of()));
+                } catch (IOException | RuntimeException e) {
+                    // Usually a file caught mid-write, which will be written again.
+                    findings.clear();
+                    dependencyIndex.remove(classFile.getLocation());
+                    System.err.println("Could not analyze " + classFile + ": " + e);
+                }
+            }
+        };
+        try (ClassFileSet classFileSet = ClassFileSet.open(existing)) {
+            ShardedAnalysis.runForFindings(
+                    classFileSet.getClassFiles(), parallelism, task, NO_FINDINGS);
+        }
+        listener.findingsChanged(findingsByClass);
+        return dependentCount;
+    }
+
+    /** The name of the class in a class file, from its path below the watched directory. */
+    private String className(Path classFile) {
+        for (Path root : roots) {
+            if (classFile.startsWith(root)) {
+                String className = Joiner.on('.').join(root.relativize(classFile));
+                return className.substring(0, className.length() - CLASS_SUFFIX.length());
+            }
+        }
+        throw new IllegalArgumentException(classFile + " is not in a watched directory");
+    }
+
+    /** True for class files the scanner would analyze; see {@link ClassFileSet#isAnalyzed}. */
+    private boolean isClassFile(Path path) {
+        for (Path root : roots) {
+            if (path.startsWith(root)) {
+                return ClassFileSet.isAnalyzed(ClassFileSet.relativePath(root, path));
+            }
+        }
+        return false;
+    }
+}
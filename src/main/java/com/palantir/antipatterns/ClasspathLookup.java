@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Resolves types from a list of jars and directories, falling back to the running JDK's own
+ * classes. Classes are read as resources rather than loaded, so no class initialization happens.
+ */
+class ClasspathLookup implements ClassLookup, HierarchyIndex.JarLocator, Closeable {
+
+    private final URLClassLoader resources;
+
+    ClasspathLookup(List<File> classpath) {
+        URL[] urls = new URL[classpath.size()];
+        for (int i = 0; i < urls.length; i++) {
+            try {
+                urls[i] = classpath.get(i).toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Bad classpath entry " + classpath.get(i), e);
+            }
+        }
+        // Skip the application class loader, so the plugin's own dependencies do not leak in.
+        this.resources = new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    @Override
+    public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+        try {
+            return ClassHeader.parse(readClass(className));
+        } catch (IllegalArgumentException e) {
+            throw new ClassNotFoundException(className, e);
+        }
+    }
+
+    @Override
+    public int lookupAccessFlags(String className) throws ClassNotFoundException {
+        String resource = className.replace('.', '/') + ".class";
+        try (InputStream in = resources.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new ClassNotFoundException(className);
+            }
+            return ClassHeader.readAccessFlags(in);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(className, e);
+        }
+    }
+
+    @Override
+    public Path findJar(String className) {
+        URL url = resources.getResource(className.replace('.', '/') + ".class");
+        if (url == null || !"jar".equals(url.getProtocol())) {
+            return null;
+        }
+        // e.g. jar:file:/libs/guava.jar!/com/google/common/base/Optional.class
+        String path = url.getPath();
+        int separator = path.indexOf("!/");
+        try {
+            URI jar = new URI(path.substring(0, separator));
+            return "file".equals(jar.getScheme()) ? Paths.get(jar).normalize() : null;
+        } catch (URISyntaxException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /** Reads the raw bytes of a class file. */
+    ByteBuffer readClass(String className) throws ClassNotFoundException {
+        String resource = className.replace('.', '/') + ".class";
+        URL url = resources.getResource(resource);
+        if (url == null) {
+            throw new ClassNotFoundException(className);
+        }
+        try {
+            return read(url, resource);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(className, e);
+        }
+    }
+
+    private ByteBuffer read(URL url, String resource) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return ClassFileSet.readClassFile(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException("Bad URL " + url, e);
+            }
+        }
+        // Read through the class loader, which closes any jars it opens when it is closed.
+        try (InputStream in = resources.getResourceAsStream(resource)) {
+            return ByteBuffer.wrap(ByteStreams.toByteArray(in));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        resources.close();
+    }
+}
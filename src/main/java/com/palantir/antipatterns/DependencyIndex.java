@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The findings of each class analyzed, keyed by class file location, with the types its verdicts
+ * depended on, and the reverse mapping from each type to the classes depending on it. Told which
+ * classes have changed, a run can work out exactly which classes might now have different
+ * findings, and replay the rest without reading their class files. Unlike {@link ResultCache},
+ * nothing is verified: a changed class left out of the list goes unnoticed. Safe to use from
+ * multiple threads.
+ */
+class DependencyIndex {
+
+    private static final int MAGIC = 0x50544144;  // "PTAD"
+    private static final int VERSION = 1;
+
+    /** A class's findings, and the types they depended on. */
+    static final class Entry {
+        private final String className;
+        private final ImmutableList<String> dependencies;
+        private final ImmutableList<Finding> findings;
+
+        Entry(String className, Collection<String> dependencies, List<Finding> findings) {
+            this.className = className;
+            this.dependencies = ImmutableList.copyOf(dependencies);
+            this.findings = ImmutableList.copyOf(findings);
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        ImmutableList<String> getDependencies() {
+            return dependencies;
+        }
+
+        ImmutableList<Finding> getFindings() {
+            return findings;
+        }
+    }
+
+    private final String configuration;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /** The locations of the classes depending on each type, including the type's own. */
+    private final ConcurrentMap<String, Set<String>> dependents = new ConcurrentHashMap<>();
+
+    /**
+     * @param configuration any settings that change which findings a class produces; an index
+     *     saved under a different configuration is not loaded
+     */
+    DependencyIndex(String configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Loads the index, or starts an empty one if the file is missing, unreadable, or was written
+     * under a different configuration.
+     */
+    static DependencyIndex load(File file, String configuration) {
+        DependencyIndex index = new DependencyIndex(configuration);
+        if (!file.isFile()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(configuration)) {
+                return index;
+            }
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String location = in.readUTF();
+                String className = in.readUTF();
+                int dependencyCount = in.readInt();
+                ImmutableList.Builder<String> dependencies = ImmutableList.builder();
+                for (int j = 0; j < dependencyCount; j++) {
+                    dependencies.add(in.readUTF());
+                }
+                int findingCount = in.readInt();
+                ImmutableList.Builder<Finding> findings = ImmutableList.builder();
+                for (int j = 0; j < findingCount; j++) {
+                    findings.add(ResultCache.readFinding(in));
+                }
+                index.put(location,
+                        new Entry(className, dependencies.build(), findings.build()));
+            }
+            return index;
+        } catch (IOException e) {
+            // Truncated by an interrupted run, or corrupt; start afresh.
+            return new DependencyIndex(configuration);
+        }
+    }
+
+    Entry get(String location) {
+        return entries.get(location);
+    }
+
+    /** Records a class's entry, replacing any earlier one for the same location. */
+    void put(String location, Entry entry) {
+        remove(location);
+        entries.put(location, entry);
+        addDependent(entry.getClassName(), location);
+        for (String dependency : entry.getDependencies()) {
+            addDependent(dependency, location);
+        }
+    }
+
+    void remove(String location) {
+        Entry old = entries.remove(location);
+        if (old != null) {
+            removeDependent(old.getClassName(), location);
+            for (String dependency : old.getDependencies()) {
+                removeDependent(dependency, location);
+            }
+        }
+    }
+
+    /** Drops the entries for locations not in {@code locations}, e.g. deleted classes. */
+    void retain(Set<String> locations) {
+        for (String location : entries.keySet()) {
+            if (!locations.contains(location)) {
+                remove(location);
+            }
+        }
+    }
+
+    /**
+     * The locations of the named classes and of every class whose findings depended on them, so
+     * might differ now that they have changed. Classes never analyzed are not included.
+     */
+    Set<String> getAffectedLocations(Collection<String> changedClasses) {
+        Set<String> affected = new TreeSet<>();
+        for (String className : changedClasses) {
+            Set<String> locations = dependents.get(className);
+            if (locations != null) {
+                affected.addAll(locations);
+            }
+        }
+        return affected;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /** Writes the index, replacing the file atomically. */
+    void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(configuration);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().getClassName());
+                List<String> dependencies = entry.getValue().getDependencies();
+                out.writeInt(dependencies.size());
+                for (String dependency : dependencies) {
+                    out.writeUTF(dependency);
+                }
+                List<Finding> findings = entry.getValue().getFindings();
+                out.writeInt(findings.size());
+                for (Finding finding : findings) {
+                    ResultCache.writeFinding(out, finding);
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void addDependent(String type, String location) {
+        Set<String> locations = dependents.get(type);
+        if (locations == null) {
+            Set<String> created =
+                    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            locations = dependents.putIfAbsent(type, created);
+            if (locations == null) {
+                locations = created;
+            }
+        }
+        locations.add(location);
+    }
+
+    private void removeDependent(String type, String location) {
+        Set<String> locations = dependents.get(type);
+        if (locations != null) {
+            locations.remove(location);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+/**
+ * Helpers for walking JVM method descriptors, e.g. (Ljava/lang/String;[I)V, without allocating
+ * BCEL types. Descriptors may be any character sequence, such as a view straight onto a class
+ * file's bytes; only {@link #className} allocates.
+ */
+final class Descriptors {
+
+    private Descriptors() {}
+
+    /** The index of the return type in the method descriptor. */
+    static int returnType(CharSequence descriptor) {
+        return indexOf(descriptor, ')', 0) + 1;
+    }
+
+    /** True if the type starting at {@code start} is an object type (not a primitive or array). */
+    static boolean isObjectType(CharSequence descriptor, int start) {
+        return descriptor.charAt(start) == 'L';
+    }
+
+    /** The dotted name of the object type starting at {@code start} in the method descriptor. */
+    static String className(CharSequence descriptor, int start) {
+        int end = endOfClassName(descriptor, start);
+        StringBuilder className = new StringBuilder(end - start - 1);
+        for (int i = start + 1; i < end; i++) {
+            char c = descriptor.charAt(i);
+            className.append((c == '/') ? '.' : c);
+        }
+        return className.toString();
+    }
+
+    /** The index of the ';' ending the object type starting at {@code start}. */
+    static int endOfClassName(CharSequence descriptor, int start) {
+        return indexOf(descriptor, ';', start);
+    }
+
+    /** The index just past the type starting at {@code start} in the method descriptor. */
+    static int endOfType(CharSequence descriptor, int start) {
+        int index = start;
+        while (descriptor.charAt(index) == '[') {
+            index++;
+        }
+        if (descriptor.charAt(index) == 'L') {
+            index = indexOf(descriptor, ';', index);
+        }
+        return index + 1;
+    }
+
+    private static int indexOf(CharSequence descriptor, char c, int from) {
+        for (int i = from; i < descriptor.length(); i++) {
+            if (descriptor.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.umd.cs.findbugs.SystemProperties;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+
+/**
+ * The {@link Baseline} both detectors suppress findings against, and the recorder they add
+ * findings to when {@code antipatterns.baseline.record} is set. Shared through the analysis cache,
+ * so the baseline is loaded once per run, and the recorder collects both detectors' findings
+ * whichever passes they run in. Safe to use from multiple threads.
+ */
+final class DetectorBaseline {
+
+    private final Baseline baseline = Baseline.fromSystemProperties();
+    private final File recordFile;
+    private final Baseline.Recorder recorder;
+
+    private DetectorBaseline() {
+        String recordFile = SystemProperties.getProperty(Baseline.RECORD_PROPERTY);
+        this.recordFile = (recordFile == null) ? null : new File(recordFile);
+        this.recorder = (recordFile == null) ? null : new Baseline.Recorder();
+    }
+
+    static DetectorBaseline get() {
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        DetectorBaseline shared = analysisCache.getOptionalDatabase(DetectorBaseline.class);
+        if (shared == null) {
+            shared = new DetectorBaseline();
+            analysisCache.eagerlyPutDatabase(DetectorBaseline.class, shared);
+        }
+        return shared;
+    }
+
+    /**
+     * True if the finding is in the baseline, so should not be reported. Checked before any bug
+     * instance is built. Also records the finding if a new baseline is being recorded.
+     */
+    boolean suppresses(
+            String pattern, String className, String methodName, String methodSignature, int parameter) {
+        if (recorder == null && baseline == Baseline.EMPTY) {
+            return false;
+        }
+        long fingerprint =
+                Baseline.fingerprint(pattern, className, methodName, methodSignature, parameter);
+        if (recorder != null) {
+            recorder.record(fingerprint);
+        }
+        return baseline.contains(fingerprint);
+    }
+
+    /**
+     * Writes the findings recorded so far, if recording. Each detector calls this from
+     * {@code report()}, so the last to finish writes the complete baseline.
+     */
+    void save() throws IOException {
+        if (recorder != null) {
+            recorder.save(recordFile);
+        }
+    }
+}
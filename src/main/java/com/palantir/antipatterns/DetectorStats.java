@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umd.cs.findbugs.SystemProperties;
+
+/**
+ * Counters and timers for a detector's hot paths: time spent per class, type lookups and their
+ * latency, missing types, and bug instances built per pattern. Detectors print a summary from
+ * {@code report()} when {@code -Dantipatterns.stats=true} is set. Safe to update from multiple
+ * threads.
+ */
+class DetectorStats {
+
+    static final boolean ENABLED = SystemProperties.getBoolean("antipatterns.stats");
+
+    private final String detectorName;
+    private final AtomicLong classes = new AtomicLong();
+    private final AtomicLong classNanos = new AtomicLong();
+    private final AtomicLong maxClassNanos = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong lookupNanos = new AtomicLong();
+    private final AtomicLong missingClasses = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> bugInstances = new ConcurrentHashMap<>();
+
+    DetectorStats(String detectorName) {
+        this.detectorName = detectorName;
+    }
+
+    /** Returns a start time to pass to {@link #classVisited}. */
+    long startClass() {
+        return System.nanoTime();
+    }
+
+    void classVisited(long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        classes.incrementAndGet();
+        classNanos.addAndGet(nanos);
+        long max = maxClassNanos.get();
+        while (nanos > max && !maxClassNanos.compareAndSet(max, nanos)) {
+            max = maxClassNanos.get();
+        }
+    }
+
+    void lookupCompleted(long nanos, boolean found) {
+        lookups.incrementAndGet();
+        lookupNanos.addAndGet(nanos);
+        if (!found) {
+            missingClasses.incrementAndGet();
+        }
+    }
+
+    void bugReported(String pattern) {
+        AtomicLong count = bugInstances.get(pattern);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = bugInstances.putIfAbsent(pattern, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /** Wraps {@code lookup} so its calls are counted and timed. */
+    ClassLookup instrument(final ClassLookup lookup) {
+        return new ClassLookup() {
+            @Override
+            public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+                long start = System.nanoTime();
+                boolean found = false;
+                try {
+                    ClassHeader header = lookup.lookupClass(className);
+                    found = true;
+                    return header;
+                } finally {
+                    lookupCompleted(System.nanoTime() - start, found);
+                }
+            }
+
+            @Override
+            public int lookupAccessFlags(String className) throws ClassNotFoundException {
+                long start = System.nanoTime();
+                boolean found = false;
+                try {
+                    int accessFlags = lookup.lookupAccessFlags(className);
+                    found = true;
+                    return accessFlags;
+                } finally {
+                    lookupCompleted(System.nanoTime() - start, found);
+                }
+            }
+        };
+    }
+
+    String summary() {
+        StringBuilder summary = new StringBuilder(detectorName)
+                .append(": ").append(classes).append(" classes in ").append(millis(classNanos.get()))
+                .append(" (max ").append(millis(maxClassNanos.get())).append(")")
+                .append("; ").append(lookups).append(" lookups in ").append(millis(lookupNanos.get()))
+                .append(", ").append(missingClasses).append(" not found");
+        for (Map.Entry<String, AtomicLong> entry : bugInstances.entrySet()) {
+            summary.append("; ").append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return summary.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
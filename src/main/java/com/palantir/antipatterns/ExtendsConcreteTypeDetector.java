@@ -15,68 +15,86 @@
  */
 package com.palantir.antipatterns;
 
-import static edu.umd.cs.findbugs.ba.Hierarchy.isSubtype;
-
-import static org.apache.bcel.Constants.CONSTRUCTOR_NAME;
+import java.io.IOException;
 
 import org.apache.bcel.classfile.JavaClass;
-import org.apache.bcel.classfile.Method;
 
 import edu.umd.cs.findbugs.BugInstance;
 import edu.umd.cs.findbugs.BugReporter;
 import edu.umd.cs.findbugs.Detector;
 import edu.umd.cs.findbugs.ba.ClassContext;
-import edu.umd.cs.findbugs.bcel.BCELUtil;
 
+/**
+ * Reports classes that extend a concrete type. FindBugs calls detectors from a single thread; the
+ * scanner's parallel analysis shares the thread-safe {@link ExtendsConcreteTypeRule} instead.
+ */
 public class ExtendsConcreteTypeDetector implements Detector {
 
-    private static final String OBJECT = Object.class.getName();
-    private static final String THROWABLE = Throwable.class.getName();
-
     private final BugReporter bugReporter;
+    private final DetectorStats stats = new DetectorStats("ExtendsConcreteTypeDetector");
+    private final DetectorBaseline baseline = DetectorBaseline.get();
+    private final MissingTypes missingTypes;
+    private final ClassLookup lookup;
+    private final HierarchyIndex index = HierarchyIndexCollector.getSharedIndex();
+    private final ExtendsConcreteTypeRule rule = new ExtendsConcreteTypeRule(index);
 
-    public ExtendsConcreteTypeDetector(BugReporter bugReporter) {
+    public ExtendsConcreteTypeDetector(final BugReporter bugReporter) {
         this.bugReporter = bugReporter;
+        this.missingTypes = new MissingTypes(
+                MissingTypes.policyFromSystemProperties(), new MissingTypes.Warning() {
+                    @Override
+                    public void missingType(ClassNotFoundException e) {
+                        bugReporter.reportMissingClass(e);
+                    }
+                });
+        this.lookup = missingTypes.track(stats.instrument(new AnalysisCacheClassLookup()));
     }
 
     @Override
     public void visitClassContext(ClassContext classContext) {
-        JavaClass obj = classContext.getJavaClass();
-        if (BCELUtil.isSynthetic(obj)) {
-            return;
+        long start = stats.startClass();
+        try {
+            visitClass(classContext.getJavaClass());
+        } finally {
+            stats.classVisited(start);
         }
+    }
+
+    private void visitClass(JavaClass obj) {
+        ClassHeader header;
         try {
-            // Extending Object, an abstract type or Throwable are all permitted.
-            JavaClass superClass = obj.getSuperClass();
-            if (OBJECT.equals(obj.getSuperclassName())
-                    || superClass.isAbstract()
-                    || superClass.isEnum()
-                    || isThrowable(obj)) {
-                return;
-            }
-            // Extending a type with a protected constructor is permitted.
-            for (Method method : superClass.getMethods()) {
-              if (isConstructor(method) && method.isProtected()) {
-                return;
-              }
-            }
+            header = lookup.lookupClass(obj.getClassName());
         } catch (ClassNotFoundException e) {
-            // Ignore
+            bugReporter.reportMissingClass(e);
             return;
         }
-        bugReporter.reportBug(new BugInstance(this, "PT_EXTENDS_CONCRETE_TYPE", HIGH_PRIORITY)
-                .addClass(obj.getClassName())
-                .addClass(obj.getSuperclassName()));
-    }
-
-    private static boolean isThrowable(JavaClass cls) throws ClassNotFoundException {
-        return isSubtype(cls.getClassName(), THROWABLE);
+        if (rule.extendsConcreteType(header, lookup) && !baseline.suppresses(
+                "PT_EXTENDS_CONCRETE_TYPE", obj.getClassName(), null, null, -1)) {
+            stats.bugReported("PT_EXTENDS_CONCRETE_TYPE");
+            bugReporter.reportBug(new BugInstance(this, "PT_EXTENDS_CONCRETE_TYPE", HIGH_PRIORITY)
+                    .addClass(obj.getClassName())
+                    .addClass(obj.getSuperclassName()));
+        }
     }
 
-    private static boolean isConstructor(Method method) {
-        return method.getName().equals(CONSTRUCTOR_NAME);
+    private void saveBaseline() {
+        try {
+            baseline.save();
+        } catch (IOException e) {
+            bugReporter.logError("Could not record antipatterns baseline", e);
+        }
     }
 
     @Override
-    public void report() {}
+    public void report() {
+        String missingSummary = missingTypes.summary();
+        if (missingSummary != null) {
+            System.err.println("ExtendsConcreteTypeDetector: " + missingSummary);
+        }
+        saveBaseline();
+        if (DetectorStats.ENABLED) {
+            System.err.println(
+                    stats.summary() + "; " + rule.getSuperclassVerdicts() + "; " + index);
+        }
+    }
 }
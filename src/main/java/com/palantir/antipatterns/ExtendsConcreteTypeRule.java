@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.util.Collection;
+
+/**
+ * The PT_EXTENDS_CONCRETE_TYPE check, independent of how classes are loaded and bugs reported.
+ * Safe to share between threads.
+ */
+class ExtendsConcreteTypeRule {
+
+    private static final String OBJECT = Object.class.getName();
+
+    private final HierarchyIndex index;
+    private final SuperclassVerdictCache superclassVerdicts = new SuperclassVerdictCache();
+
+    ExtendsConcreteTypeRule() {
+        this(new HierarchyIndex());
+    }
+
+    /** @param index facts about classes already indexed, consulted before {@code lookup} */
+    ExtendsConcreteTypeRule(HierarchyIndex index) {
+        this.index = index;
+    }
+
+    boolean extendsConcreteType(ClassHeader obj, ClassLookup lookup) {
+        if (obj.isSynthetic()) {
+            return false;
+        }
+        // Extending Object, an abstract type, an enum, Throwable or a type with a protected
+        // constructor are all permitted.
+        String superclassName = obj.getSuperclassName();
+        if (superclassName == null || OBJECT.equals(superclassName)) {
+            return false;
+        }
+        return !superclassVerdicts.getVerdict(superclassName, index, lookup).isExtensionPermitted();
+    }
+
+    /**
+     * True if a class on the superclass chain {@link #extendsConcreteType} walks for {@code obj}
+     * could not be found, so the superclass was given the benefit of the doubt.
+     */
+    boolean dependsOnMissingTypes(ClassHeader obj, ClassLookup lookup) {
+        String superclassName = obj.getSuperclassName();
+        if (obj.isSynthetic() || superclassName == null || OBJECT.equals(superclassName)) {
+            return false;
+        }
+        return superclassVerdicts.getVerdict(superclassName, index, lookup)
+                == SuperclassVerdictCache.Verdict.UNRESOLVABLE;
+    }
+
+    /** Adds the superclass if {@link #extendsConcreteType} would have to look it up for obj. */
+    void collectUnresolvedTypes(ClassHeader obj, Collection<String> types) {
+        String superclassName = obj.getSuperclassName();
+        if (superclassName != null && !OBJECT.equals(superclassName) && !obj.isSynthetic()
+                && !superclassVerdicts.hasVerdict(superclassName)
+                && !index.contains(superclassName)) {
+            types.add(superclassName);
+        }
+    }
+
+    /** Forgets what is known about the named classes, e.g. after they are recompiled. */
+    void invalidate(Collection<String> classNames) {
+        superclassVerdicts.invalidate(classNames);
+    }
+
+    SuperclassVerdictCache getSuperclassVerdicts() {
+        return superclassVerdicts;
+    }
+}
@@ -15,80 +15,171 @@
  */
 package com.palantir.antipatterns;
 
-import static org.apache.bcel.Constants.CONSTRUCTOR_NAME;
+import java.io.IOException;
 
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
 import org.apache.bcel.generic.ObjectType;
-import org.apache.bcel.generic.Type;
 
 import edu.umd.cs.findbugs.BugInstance;
 import edu.umd.cs.findbugs.BugReporter;
 import edu.umd.cs.findbugs.Detector;
+import edu.umd.cs.findbugs.MethodAnnotation;
+import edu.umd.cs.findbugs.SystemProperties;
 import edu.umd.cs.findbugs.ba.ClassContext;
-import edu.umd.cs.findbugs.bcel.BCELUtil;
 
+/**
+ * Reports final types in public and protected method signatures. FindBugs calls detectors from a
+ * single thread; the scanner's parallel analysis shares the thread-safe {@link FinalSignatureRule}
+ * instead.
+ *
+ * <p>With {@code -Dantipatterns.aggregate=true}, final return and parameter types are instead
+ * collected while classes are visited, and reported from {@link #report()} as one
+ * PT_FINAL_TYPE_USAGE bug per type, with a usage count and up to
+ * {@code antipatterns.aggregate.samples} (default 5) sample methods.
+ *
+ * <p>With {@code -Dantipatterns.api.packages} or {@code -Dantipatterns.api.module}, only public
+ * classes in the exported packages are checked; see {@link ApiSurface#fromSystemProperties()}.
+ */
 public class FinalSignatureDetector implements Detector {
 
+    private static final boolean AGGREGATE = SystemProperties.getBoolean("antipatterns.aggregate");
+    private static final int MAX_SAMPLES =
+            Math.max(1, SystemProperties.getInt("antipatterns.aggregate.samples", 5));
+
     private final BugReporter bugReporter;
+    private final DetectorStats stats = new DetectorStats("FinalSignatureDetector");
+    private final DetectorBaseline baseline = DetectorBaseline.get();
+    private final MissingTypes missingTypes;
+    private final ClassLookup lookup;
+    private final FinalSignatureRule rule = new FinalSignatureRule(
+            PackageFilter.fromSystemProperties(), ApiSurface.fromSystemProperties(),
+            SystemProperties.getInt(SignatureVerdictCache.SIZE_PROPERTY,
+                    SignatureVerdictCache.DEFAULT_MAXIMUM_SIZE),
+            SystemProperties.getInt(FinalTypeCache.SIZE_PROPERTY,
+                    FinalTypeCache.DEFAULT_MAXIMUM_SIZE));
+    private final FinalTypeUsages<MethodAnnotation> usages =
+            AGGREGATE ? new FinalTypeUsages<MethodAnnotation>(MAX_SAMPLES) : null;
 
-    public FinalSignatureDetector(BugReporter bugReporter) {
+    public FinalSignatureDetector(final BugReporter bugReporter) {
         this.bugReporter = bugReporter;
+        this.missingTypes = new MissingTypes(
+                MissingTypes.policyFromSystemProperties(), new MissingTypes.Warning() {
+                    @Override
+                    public void missingType(ClassNotFoundException e) {
+                        bugReporter.reportMissingClass(e);
+                    }
+                });
+        // Final verdicts on application types come from the index the collector pass built.
+        this.lookup = HierarchyIndexCollector.getSharedIndex().answeringAccessFlags(
+                missingTypes.track(stats.instrument(new AnalysisCacheClassLookup())));
     }
 
     @Override
     public void visitClassContext(ClassContext classContext) {
-        JavaClass obj = classContext.getJavaClass();
-        if (BCELUtil.isSynthetic(obj)) {
+        long start = stats.startClass();
+        try {
+            visitClass(classContext.getJavaClass());
+        } finally {
+            stats.classVisited(start);
+        }
+    }
+
+    private void visitClass(final JavaClass obj) {
+        // The header lists methods in class file order, as BCEL does.
+        final Method[] methods = obj.getMethods();
+        ClassHeader header;
+        try {
+            header = lookup.lookupClass(obj.getClassName());
+        } catch (ClassNotFoundException e) {
+            bugReporter.reportMissingClass(e);
             return;
         }
-        for (Method method : obj.getMethods()) {
-            if (method.isPublic() || method.isProtected()) {
-                if (isIllegalFinalType(method.getReturnType(), classContext)) {
-                    bugReporter.reportBug(new BugInstance(this, "PT_FINAL_TYPE_RETURN", NORMAL_PRIORITY)
-                            .addClassAndMethod(obj, method)
-                            .addType(method.getReturnType()));
+        rule.check(header, lookup, new FinalSignatureRule.Listener() {
+            @Override
+            public void finalTypeReturn(int method, String type) {
+                if (suppressed("PT_FINAL_TYPE_RETURN", obj, methods[method], -1)) {
+                    return;
                 }
-                if (obj.isFinal() && isConstructor(method)) {
-                    bugReporter.reportBug(new BugInstance(this, "PT_FINAL_TYPE_CONSTRUCTOR", NORMAL_PRIORITY)
-                            .addClassAndMethod(obj, method));
+                if (usages != null) {
+                    usages.add(type, sample(obj, methods[method]));
+                    return;
                 }
-                int param = 0;
-                for (Type type : method.getArgumentTypes()) {
-                    if (isIllegalFinalType(type, classContext)) {
-                        bugReporter.reportBug(
-                                new BugInstance(this, "PT_FINAL_TYPE_PARAM", NORMAL_PRIORITY)
-                                        .addInt(param)
-                                        .addClassAndMethod(obj, method)
-                                        .addType(type));
-                    }
-                    param++;
+                bugReporter.reportBug(newBugInstance("PT_FINAL_TYPE_RETURN")
+                        .addClassAndMethod(obj, methods[method])
+                        .addType(new ObjectType(type)));
+            }
+
+            @Override
+            public void finalTypeConstructor(int method) {
+                if (suppressed("PT_FINAL_TYPE_CONSTRUCTOR", obj, methods[method], -1)) {
+                    return;
+                }
+                bugReporter.reportBug(newBugInstance("PT_FINAL_TYPE_CONSTRUCTOR")
+                        .addClassAndMethod(obj, methods[method]));
+            }
+
+            @Override
+            public void finalTypeParam(int method, int param, String type) {
+                if (suppressed("PT_FINAL_TYPE_PARAM", obj, methods[method], param)) {
+                    return;
+                }
+                if (usages != null) {
+                    usages.add(type, sample(obj, methods[method]));
+                    return;
                 }
+                bugReporter.reportBug(newBugInstance("PT_FINAL_TYPE_PARAM")
+                        .addInt(param)
+                        .addClassAndMethod(obj, methods[method])
+                        .addType(new ObjectType(type)));
             }
+        });
+    }
+
+    private static MethodAnnotation sample(JavaClass obj, Method method) {
+        return MethodAnnotation.fromForeignMethod(obj.getClassName(), method.getName(),
+                method.getSignature(), method.isStatic());
+    }
+
+    private boolean suppressed(String type, JavaClass obj, Method method, int param) {
+        return baseline.suppresses(
+                type, obj.getClassName(), method.getName(), method.getSignature(), param);
+    }
+
+    private void saveBaseline() {
+        try {
+            baseline.save();
+        } catch (IOException e) {
+            bugReporter.logError("Could not record antipatterns baseline", e);
         }
     }
 
-    private static boolean isConstructor(Method method) {
-        return method.getName().equals(CONSTRUCTOR_NAME);
+    private BugInstance newBugInstance(String type) {
+        stats.bugReported(type);
+        return new BugInstance(this, type, NORMAL_PRIORITY);
     }
 
-    private static boolean isIllegalFinalType(Type type, ClassContext classContext) {
-        if (type instanceof ObjectType) {
-            try {
-                String className = ((ObjectType) type).getClassName();
-                if (className.startsWith("java.")) {
-                    // Types in java.lang are final for security reasons.
-                    return false;
+    @Override
+    public void report() {
+        String missingSummary = missingTypes.summary();
+        if (missingSummary != null) {
+            System.err.println("FinalSignatureDetector: " + missingSummary);
+        }
+        if (usages != null) {
+            for (FinalTypeUsages.Usage<MethodAnnotation> usage : usages.getUsages()) {
+                BugInstance bug = newBugInstance("PT_FINAL_TYPE_USAGE")
+                        .addClass(usage.getType())
+                        .addInt(usage.getCount());
+                for (MethodAnnotation sample : usage.getSamples()) {
+                    bug.addMethod(sample);
                 }
-                JavaClass cls = classContext.getAnalysisContext().lookupClass(className);
-                return cls.isFinal() && !cls.isEnum();
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
+                bugReporter.reportBug(bug);
             }
         }
-        return false;
+        saveBaseline();
+        if (DetectorStats.ENABLED) {
+            System.err.println(stats.summary() + "; " + rule.getFinalTypeCache() + "; "
+                    + rule.getSignatureVerdicts());
+        }
     }
-
-    @Override
-    public void report() {}
 }
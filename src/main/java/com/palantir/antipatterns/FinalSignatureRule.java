@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.palantir.antipatterns.Descriptors.className;
+import static com.palantir.antipatterns.Descriptors.endOfClassName;
+import static com.palantir.antipatterns.Descriptors.endOfType;
+import static com.palantir.antipatterns.Descriptors.isObjectType;
+import static com.palantir.antipatterns.Descriptors.returnType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * The PT_FINAL_TYPE_* checks, independent of how classes are loaded and bugs reported. Safe to
+ * share between threads.
+ */
+class FinalSignatureRule {
+
+    /**
+     * Receives each final type found in a class's public and protected signatures. Methods are
+     * identified by their index in the class file.
+     */
+    interface Listener {
+        void finalTypeReturn(int method, String type);
+        void finalTypeConstructor(int method);
+        void finalTypeParam(int method, int param, String type);
+    }
+
+    private final PackageFilter packageFilter;
+    private final ApiSurface apiSurface;
+    private final FinalTypeCache finalTypeCache;
+    private final SignatureVerdictCache signatureVerdicts;
+
+    FinalSignatureRule() {
+        this(PackageFilter.DEFAULT);
+    }
+
+    /** @param packageFilter packages whose types are trusted without being resolved */
+    FinalSignatureRule(PackageFilter packageFilter) {
+        this(packageFilter, ApiSurface.ALL);
+    }
+
+    /** @param apiSurface the classes to check; others are skipped without reading their methods */
+    FinalSignatureRule(PackageFilter packageFilter, ApiSurface apiSurface) {
+        this(packageFilter, apiSurface, SignatureVerdictCache.DEFAULT_MAXIMUM_SIZE,
+                FinalTypeCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maxDescriptors how many method descriptors' outcomes to remember
+     * @param maxTypes how many referenced types' verdicts to remember
+     */
+    FinalSignatureRule(PackageFilter packageFilter, ApiSurface apiSurface, long maxDescriptors,
+            long maxTypes) {
+        this.packageFilter = packageFilter;
+        this.apiSurface = apiSurface;
+        this.finalTypeCache = new FinalTypeCache(maxTypes);
+        this.signatureVerdicts = new SignatureVerdictCache(maxDescriptors);
+    }
+
+    void check(ClassHeader obj, ClassLookup lookup, Listener listener) {
+        if (!apiSurface.includes(obj) || obj.isSynthetic()) {
+            return;
+        }
+        int methodCount = obj.getMethodCount();
+        for (int method = 0; method < methodCount; method++) {
+            if (obj.isMethodPublic(method) || obj.isMethodProtected(method)) {
+                SignatureVerdictCache.Verdict verdict =
+                        getSignatureVerdict(obj.getMethodDescriptorView(method), lookup);
+                if (verdict != null && verdict.getReturnType() != null) {
+                    listener.finalTypeReturn(method, verdict.getReturnType());
+                }
+                if (obj.isFinal() && obj.isConstructor(method)) {
+                    listener.finalTypeConstructor(method);
+                }
+                if (verdict != null) {
+                    for (int i = 0; i < verdict.getIllegalParamCount(); i++) {
+                        listener.finalTypeParam(
+                                method, verdict.getIllegalParam(i), verdict.getIllegalParamType(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Adds every type whose verdict {@link #check} would consult for {@code obj}. */
+    void collectReferencedTypes(ClassHeader obj, Collection<String> types) {
+        if (!apiSurface.includes(obj) || obj.isSynthetic()) {
+            return;
+        }
+        int methodCount = obj.getMethodCount();
+        for (int method = 0; method < methodCount; method++) {
+            if (obj.isMethodPublic(method) || obj.isMethodProtected(method)) {
+                CharSequence descriptor = obj.getMethodDescriptorView(method);
+                // Walks the parameters, the closing parenthesis and the return type.
+                for (int type = 1; type < descriptor.length(); type = endOfType(descriptor, type)) {
+                    if (needsVerdict(descriptor, type)) {
+                        types.add(className(descriptor, type));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Adds the types {@link #check} would have to resolve for {@code obj}, having no verdict. */
+    void collectUnresolvedTypes(ClassHeader obj, Collection<String> types) {
+        Set<String> referenced = new HashSet<>();
+        collectReferencedTypes(obj, referenced);
+        for (String type : referenced) {
+            if (!finalTypeCache.hasVerdict(type)) {
+                types.add(type);
+            }
+        }
+    }
+
+    /** True if any type whose verdict {@link #check} consults for {@code obj} cannot be found. */
+    boolean dependsOnMissingTypes(ClassHeader obj, ClassLookup lookup) {
+        Set<String> types = new HashSet<>();
+        collectReferencedTypes(obj, types);
+        for (String type : types) {
+            if (finalTypeCache.getVerdict(type, lookup) == FinalTypeCache.Verdict.UNRESOLVABLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets what is known about the named types, e.g. after they are recompiled. Descriptor
+     * outcomes may outlive the verdicts on the types they mention, so all of them are dropped.
+     */
+    void invalidate(Collection<String> classNames) {
+        if (!classNames.isEmpty()) {
+            finalTypeCache.invalidate(classNames);
+            signatureVerdicts.invalidateAll();
+        }
+    }
+
+    FinalTypeCache getFinalTypeCache() {
+        return finalTypeCache;
+    }
+
+    SignatureVerdictCache getSignatureVerdicts() {
+        return signatureVerdicts;
+    }
+
+    /**
+     * Returns the illegal final types in a method descriptor, or null if it names no types needing
+     * a verdict. Only in the latter case is nothing allocated.
+     */
+    private SignatureVerdictCache.Verdict getSignatureVerdict(
+            CharSequence descriptor, ClassLookup lookup) {
+        if (!hasTypeNeedingVerdict(descriptor)) {
+            return null;
+        }
+        String key = descriptor.toString();
+        SignatureVerdictCache.Verdict verdict = signatureVerdicts.get(key);
+        if (verdict == null) {
+            verdict = resolveSignature(key, lookup);
+            signatureVerdicts.put(key, verdict);
+        }
+        return verdict;
+    }
+
+    private boolean hasTypeNeedingVerdict(CharSequence descriptor) {
+        for (int type = 1; type < descriptor.length(); type = endOfType(descriptor, type)) {
+            if (needsVerdict(descriptor, type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private SignatureVerdictCache.Verdict resolveSignature(String descriptor, ClassLookup lookup) {
+        int returnType = returnType(descriptor);
+        String illegalReturnType = isIllegalFinalType(descriptor, returnType, lookup)
+                ? className(descriptor, returnType) : null;
+        List<Integer> params = new ArrayList<>();
+        List<String> paramTypes = new ArrayList<>();
+        int param = 0;
+        for (int type = 1; type < returnType - 1; type = endOfType(descriptor, type)) {
+            if (isIllegalFinalType(descriptor, type, lookup)) {
+                params.add(param);
+                paramTypes.add(className(descriptor, type));
+            }
+            param++;
+        }
+        return new SignatureVerdictCache.Verdict(illegalReturnType, Ints.toArray(params),
+                paramTypes.toArray(new String[paramTypes.size()]));
+    }
+
+    /**
+     * True if the type starting at {@code start} in the method descriptor is a final class. Arrays
+     * and primitives are never illegal, nor are types that cannot be found: the lookup applies the
+     * {@link MissingTypePolicy} to those.
+     */
+    private boolean isIllegalFinalType(CharSequence descriptor, int start, ClassLookup lookup) {
+        if (!needsVerdict(descriptor, start)) {
+            return false;
+        }
+        String className = className(descriptor, start);
+        return finalTypeCache.getVerdict(className, lookup) == FinalTypeCache.Verdict.FINAL;
+    }
+
+    private boolean needsVerdict(CharSequence descriptor, int start) {
+        if (!isObjectType(descriptor, start)) {
+            return false;
+        }
+        // By default, types in java.* are trusted: many are final for security reasons.
+        return !packageFilter.isExcluded(descriptor, start + 1, endOfClassName(descriptor, start));
+    }
+}
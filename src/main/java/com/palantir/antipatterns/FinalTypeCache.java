@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Remembers whether each type referenced from a method signature is final, so each type is only
+ * resolved once per analysis run, however many signatures mention it. Types are resolved from
+ * their access flags alone, without loading the class. At most a fixed number of verdicts are
+ * kept, least recently used first out, so huge dependency classpaths fit in a bounded heap.
+ */
+class FinalTypeCache {
+
+    /** The FindBugs property bounding how many verdicts are remembered. */
+    static final String SIZE_PROPERTY = "antipatterns.type.cache.size";
+    static final int DEFAULT_MAXIMUM_SIZE = 100000;
+
+    enum Verdict {
+        FINAL, NON_FINAL, ENUM, UNRESOLVABLE
+    }
+
+    private final Cache<String, Verdict> verdicts;
+
+    FinalTypeCache(long maximumSize) {
+        this.verdicts = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    Verdict getVerdict(String className, ClassLookup lookup) {
+        Verdict verdict = verdicts.getIfPresent(className);
+        if (verdict == null) {
+            // Racing threads may both resolve a type, but will reach the same verdict.
+            verdict = resolve(className, lookup);
+            verdicts.put(className, verdict);
+        }
+        return verdict;
+    }
+
+    /** True if the type has a verdict, without counting as a hit or miss. */
+    boolean hasVerdict(String className) {
+        return verdicts.asMap().containsKey(className);
+    }
+
+    /** Forgets the verdicts on the named types. */
+    void invalidate(Iterable<String> classNames) {
+        verdicts.invalidateAll(classNames);
+    }
+
+    long getHitCount() {
+        return verdicts.stats().hitCount();
+    }
+
+    long getMissCount() {
+        return verdicts.stats().missCount();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = verdicts.stats();
+        return "FinalTypeCache{types=" + verdicts.size() + ", hits=" + stats.hitCount()
+                + ", misses=" + stats.missCount() + ", evictions=" + stats.evictionCount() + "}";
+    }
+
+    private static Verdict resolve(String className, ClassLookup lookup) {
+        int accessFlags;
+        try {
+            accessFlags = lookup.lookupAccessFlags(className);
+        } catch (ClassNotFoundException e) {
+            return Verdict.UNRESOLVABLE;
+        }
+        if ((accessFlags & ClassHeader.ACC_ENUM) != 0) {
+            return Verdict.ENUM;
+        }
+        return ((accessFlags & ClassHeader.ACC_FINAL) != 0) ? Verdict.FINAL : Verdict.NON_FINAL;
+    }
+}
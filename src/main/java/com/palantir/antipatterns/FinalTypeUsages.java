@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Groups the signatures using each final type, so a widely used type can be reported once with a
+ * usage count instead of once per signature. Keeps at most a fixed number of sample sites per
+ * type, choosing the smallest so the samples do not depend on the order classes are visited in.
+ * Safe to update from multiple threads.
+ */
+class FinalTypeUsages<S extends Comparable<? super S>> {
+
+    /** The signatures using one final type. */
+    static final class Usage<S> {
+        private final String type;
+        private final int count;
+        private final ImmutableList<S> samples;
+
+        private Usage(String type, int count, Iterable<S> samples) {
+            this.type = type;
+            this.count = count;
+            this.samples = ImmutableList.copyOf(samples);
+        }
+
+        String getType() {
+            return type;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        ImmutableList<S> getSamples() {
+            return samples;
+        }
+    }
+
+    private static final class Sites<S> {
+        private int count;
+        private final TreeSet<S> samples = new TreeSet<>();
+    }
+
+    private final int maxSamples;
+    private final Map<String, Sites<S>> sitesByType = new TreeMap<>();
+
+    FinalTypeUsages(int maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+    synchronized void add(String type, S site) {
+        Sites<S> sites = sitesByType.get(type);
+        if (sites == null) {
+            sites = new Sites<>();
+            sitesByType.put(type, sites);
+        }
+        sites.count++;
+        if (sites.samples.size() < maxSamples) {
+            sites.samples.add(site);
+        } else if (maxSamples > 0 && site.compareTo(sites.samples.last()) < 0) {
+            if (sites.samples.add(site)) {
+                sites.samples.pollLast();
+            }
+        }
+    }
+
+    /** Returns the usages of each type, ordered by type name. */
+    synchronized List<Usage<S>> getUsages() {
+        List<Usage<S>> usages = new ArrayList<>(sitesByType.size());
+        for (Map.Entry<String, Sites<S>> entry : sitesByType.entrySet()) {
+            usages.add(new Usage<S>(
+                    entry.getKey(), entry.getValue().count, entry.getValue().samples));
+        }
+        return usages;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.util.Objects;
+
+/**
+ * An antipattern found by {@link AntipatternScanner}.
+ */
+public final class Finding {
+
+    /** The FindBugs bug patterns a finding can have. */
+    public enum Pattern {
+        EXTENDS_CONCRETE_TYPE("PT_EXTENDS_CONCRETE_TYPE"),
+        FINAL_TYPE_RETURN("PT_FINAL_TYPE_RETURN"),
+        FINAL_TYPE_CONSTRUCTOR("PT_FINAL_TYPE_CONSTRUCTOR"),
+        FINAL_TYPE_PARAM("PT_FINAL_TYPE_PARAM");
+
+        private final String bugType;
+
+        private Pattern(String bugType) {
+            this.bugType = bugType;
+        }
+
+        /** The FindBugs bug type, e.g. PT_FINAL_TYPE_PARAM. */
+        public String getBugType() {
+            return bugType;
+        }
+
+        /** Returns the pattern with the given FindBugs bug type. */
+        public static Pattern forBugType(String bugType) {
+            for (Pattern pattern : values()) {
+                if (pattern.bugType.equals(bugType)) {
+                    return pattern;
+                }
+            }
+            throw new IllegalArgumentException("Unknown bug pattern " + bugType);
+        }
+    }
+
+    private final Pattern pattern;
+    private final String className;
+    private final String methodName;
+    private final String methodSignature;
+    private final int parameter;
+    private final String type;
+
+    Finding(
+            Pattern pattern,
+            String className,
+            String methodName,
+            String methodSignature,
+            int parameter,
+            String type) {
+        this.pattern = pattern;
+        this.className = className;
+        this.methodName = methodName;
+        this.methodSignature = methodSignature;
+        this.parameter = parameter;
+        this.type = type;
+    }
+
+    static Finding extendsConcreteType(String className, String superclassName) {
+        return new Finding(
+                Pattern.EXTENDS_CONCRETE_TYPE, className, null, null, -1, superclassName);
+    }
+
+    static Finding finalTypeReturn(
+            String className, String methodName, String methodSignature, String type) {
+        return new Finding(
+                Pattern.FINAL_TYPE_RETURN, className, methodName, methodSignature, -1, type);
+    }
+
+    static Finding finalTypeConstructor(String className, String methodName, String methodSignature) {
+        return new Finding(
+                Pattern.FINAL_TYPE_CONSTRUCTOR, className, methodName, methodSignature, -1, null);
+    }
+
+    static Finding finalTypeParam(
+            String className, String methodName, String methodSignature, int parameter, String type) {
+        return new Finding(
+                Pattern.FINAL_TYPE_PARAM, className, methodName, methodSignature, parameter, type);
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /** The class the antipattern was found in. */
+    public String getClassName() {
+        return className;
+    }
+
+    /** The method the antipattern was found in, or null for class-level findings. */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /** The JVM descriptor of the method the antipattern was found in, or null. */
+    public String getMethodSignature() {
+        return methodSignature;
+    }
+
+    /** The index of the offending parameter, or -1 if the finding is not about a parameter. */
+    public int getParameter() {
+        return parameter;
+    }
+
+    /** The offending final type or concrete superclass, or null. */
+    public String getType() {
+        return type;
+    }
+
+    /** The message FindBugs would show for this finding. */
+    public String getMessage() {
+        Messages messages = Messages.get();
+        String bugType = pattern.getBugType();
+        switch (pattern) {
+            case EXTENDS_CONCRETE_TYPE:
+                return messages.format(bugType, className, type);
+            case FINAL_TYPE_RETURN:
+                return messages.format(bugType, className, formatMethod(), type);
+            case FINAL_TYPE_CONSTRUCTOR:
+                return messages.format(bugType, className, formatMethod());
+            case FINAL_TYPE_PARAM:
+                return messages.format(bugType, parameter, className, formatMethod(), type);
+            default:
+                throw new IllegalStateException("Unknown bug pattern " + pattern);
+        }
+    }
+
+    /** Formats the method as FindBugs does, e.g. com.example.Foo.bar(String, int[]). */
+    private String formatMethod() {
+        StringBuilder result = new StringBuilder(className).append('.').append(methodName).append('(');
+        int index = 1;
+        boolean first = true;
+        while (methodSignature.charAt(index) != ')') {
+            int dimensions = 0;
+            while (methodSignature.charAt(index) == '[') {
+                dimensions++;
+                index++;
+            }
+            if (!first) {
+                result.append(", ");
+            }
+            first = false;
+            if (methodSignature.charAt(index) == 'L') {
+                int end = methodSignature.indexOf(';', index);
+                String name = methodSignature.substring(index + 1, end);
+                result.append(name.substring(name.lastIndexOf('/') + 1));
+                index = end + 1;
+            } else {
+                result.append(primitiveName(methodSignature.charAt(index)));
+                index++;
+            }
+            for (int i = 0; i < dimensions; i++) {
+                result.append("[]");
+            }
+        }
+        return result.append(')').toString();
+    }
+
+    private static String primitiveName(char descriptor) {
+        switch (descriptor) {
+            case 'B': return "byte";
+            case 'C': return "char";
+            case 'D': return "double";
+            case 'F': return "float";
+            case 'I': return "int";
+            case 'J': return "long";
+            case 'S': return "short";
+            case 'Z': return "boolean";
+            default: throw new IllegalArgumentException("Bad descriptor character " + descriptor);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Finding)) {
+            return false;
+        }
+        Finding other = (Finding) obj;
+        return pattern.equals(other.pattern)
+                && className.equals(other.className)
+                && Objects.equals(methodName, other.methodName)
+                && Objects.equals(methodSignature, other.methodSignature)
+                && parameter == other.parameter
+                && Objects.equals(type, other.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pattern, className, methodName, methodSignature, parameter, type);
+    }
+
+    @Override
+    public String toString() {
+        return pattern.getBugType() + ": " + getMessage();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The facts {@link ExtendsConcreteTypeRule} and {@link FinalSignatureRule} need about each class
+ * in the application: its access flags, its superclass, and whether it has a protected
+ * constructor. Filled in by {@link HierarchyIndexCollector} in a first pass over every class, so
+ * the detectors' pass can answer questions about application types, and walk their ancestor
+ * chains, without going back to the class files. Library types are answered from the
+ * {@link TypeCensus} of the jar they would be loaded from, if it has one, and other classes read
+ * through a {@link ClassLookup} as before. The facts are held in a {@link ClassMetadataStore},
+ * so even million-class applications take tens of megabytes; in FindBugs, set
+ * {@code antipatterns.index.offheap=true} to keep its class names out of the Java heap. Safe to
+ * use from multiple threads.
+ */
+class HierarchyIndex {
+
+    /** The FindBugs property moving the collector's index names off the Java heap. */
+    static final String OFF_HEAP_PROPERTY = "antipatterns.index.offheap";
+
+    /** What the index records about one class. */
+    static final class ClassInfo {
+        private final String className;
+        private final String superclassName;
+        private final int flags;
+
+        private ClassInfo(ClassHeader header) {
+            this(header.getClassName(), header.getSuperclassName(), flags(header));
+        }
+
+        private ClassInfo(String className, String superclassName, int flags) {
+            this.className = className;
+            this.superclassName = superclassName;
+            this.flags = flags;
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        /** The dotted name of the superclass, or null for java.lang.Object. */
+        String getSuperclassName() {
+            return superclassName;
+        }
+
+        boolean isAbstract() {
+            return (flags & ClassHeader.ACC_ABSTRACT) != 0;
+        }
+
+        boolean isEnum() {
+            return (flags & ClassHeader.ACC_ENUM) != 0;
+        }
+
+        boolean hasProtectedConstructor() {
+            return (flags & ClassMetadataStore.PROTECTED_CONSTRUCTOR) != 0;
+        }
+    }
+
+    /** Finds where on the classpath a class would be read from, without reading it. */
+    interface JarLocator {
+        /**
+         * The jar the named class would be read from, as {@link TypeCensus#pathOf} names it, or
+         * null if an earlier directory or in-memory class, or nothing at all, would supply it.
+         */
+        Path findJar(String className);
+    }
+
+    private final ClassMetadataStore store;
+    /** Dependency jars' censuses, by jar, consulted after the store. */
+    private final ImmutableMap<Path, TypeCensus> censuses;
+    private final JarLocator locator;
+
+    HierarchyIndex() {
+        this(new ClassMetadataStore(false));
+    }
+
+    /**
+     * @param locator picks the census to answer from, so a class shadowed by an earlier
+     *     classpath entry is never answered from a later jar's census
+     */
+    HierarchyIndex(List<TypeCensus> censuses, JarLocator locator) {
+        this(new ClassMetadataStore(false), censuses, locator);
+    }
+
+    HierarchyIndex(ClassMetadataStore store) {
+        this(store, ImmutableList.<TypeCensus>of(), null);
+    }
+
+    HierarchyIndex(ClassMetadataStore store, List<TypeCensus> censuses, JarLocator locator) {
+        checkArgument(censuses.isEmpty() || locator != null, "Censuses need a locator");
+        Map<Path, TypeCensus> byJar = new LinkedHashMap<>();
+        for (TypeCensus census : censuses) {
+            // As on a classpath, a jar listed twice is only read from the first time.
+            if (!byJar.containsKey(census.getJar())) {
+                byJar.put(census.getJar(), census);
+            }
+        }
+        this.store = store;
+        this.censuses = ImmutableMap.copyOf(byJar);
+        this.locator = locator;
+    }
+
+    void add(ClassHeader header) {
+        store.put(header.getClassName(), header.getSuperclassName(), flags(header));
+    }
+
+    boolean contains(String className) {
+        return store.find(className) != ClassMetadataStore.NONE || findInCensus(className) != null;
+    }
+
+    /** Returns the indexed facts about a class, reading them through {@code lookup} if absent. */
+    ClassInfo getClassInfo(String className, ClassLookup lookup) throws ClassNotFoundException {
+        int id = store.find(className);
+        if (id == ClassMetadataStore.NONE) {
+            ClassInfo info = findInCensus(className);
+            return (info != null) ? info : new ClassInfo(lookup.lookupClass(className));
+        }
+        int superclass = store.getSuperclass(id);
+        return new ClassInfo(className,
+                (superclass == ClassMetadataStore.NONE) ? null : store.getName(superclass),
+                store.getFlags(id));
+    }
+
+    /**
+     * Wraps a lookup so the access flags of indexed classes are answered from the index. Other
+     * questions, and classes outside the index, go to {@code lookup}.
+     */
+    ClassLookup answeringAccessFlags(final ClassLookup lookup) {
+        return new ClassLookup() {
+            @Override
+            public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+                return lookup.lookupClass(className);
+            }
+
+            @Override
+            public int lookupAccessFlags(String className) throws ClassNotFoundException {
+                int id = store.find(className);
+                if (id != ClassMetadataStore.NONE) {
+                    return store.getFlags(id) & ~ClassMetadataStore.PROTECTED_CONSTRUCTOR;
+                }
+                ClassInfo info = findInCensus(className);
+                return (info != null)
+                        ? info.flags & ~ClassMetadataStore.PROTECTED_CONSTRUCTOR
+                        : lookup.lookupAccessFlags(className);
+            }
+        };
+    }
+
+    int size() {
+        return store.size();
+    }
+
+    @Override
+    public String toString() {
+        if (censuses.isEmpty()) {
+            return "HierarchyIndex{" + store + "}";
+        }
+        int censusTypes = 0;
+        for (TypeCensus census : censuses.values()) {
+            censusTypes += census.size();
+        }
+        return "HierarchyIndex{" + store + ", census=" + censuses.size() + " jars, " + censusTypes
+                + " types}";
+    }
+
+    /**
+     * The facts about a class from the census of the jar it would be read from, or null if that
+     * jar has no census.
+     */
+    private ClassInfo findInCensus(String className) {
+        if (censuses.isEmpty()) {
+            return null;
+        }
+        Path jar = locator.findJar(className);
+        TypeCensus census = (jar == null) ? null : censuses.get(jar);
+        int index = (census == null) ? -1 : census.indexOf(className);
+        if (index < 0) {
+            return null;
+        }
+        return new ClassInfo(className, census.getSuperclassName(index), census.getFlags(index));
+    }
+
+    private static int flags(ClassHeader header) {
+        return header.getAccessFlags()
+                | (header.hasProtectedConstructor() ? ClassMetadataStore.PROTECTED_CONSTRUCTOR : 0);
+    }
+}
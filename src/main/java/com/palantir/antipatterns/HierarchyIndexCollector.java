@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.Detector;
+import edu.umd.cs.findbugs.NonReportingDetector;
+import edu.umd.cs.findbugs.SystemProperties;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.ICodeBase;
+
+/**
+ * Builds the {@link HierarchyIndex} of every application class in a pass before the detectors
+ * run, and publishes it as an analysis cache database. With
+ * {@code -Dantipatterns.census.dir=<directory>}, the index also holds a {@link TypeCensus} of
+ * each jar on the auxiliary classpath, cached in that directory.
+ */
+public class HierarchyIndexCollector implements Detector, NonReportingDetector {
+
+    static final String CENSUS_DIR_PROPERTY = "antipatterns.census.dir";
+
+    private final HierarchyIndex index;
+    private final AnalysisCacheClassLookup lookup = new AnalysisCacheClassLookup();
+
+    public HierarchyIndexCollector(BugReporter bugReporter) {
+        ClassMetadataStore store = new ClassMetadataStore(
+                SystemProperties.getBoolean(HierarchyIndex.OFF_HEAP_PROPERTY));
+        this.index = new HierarchyIndex(store, takeCensus(bugReporter), lookup);
+        Global.getAnalysisCache().eagerlyPutDatabase(HierarchyIndex.class, index);
+    }
+
+    /** The index built by an earlier pass, or an empty one if this collector did not run. */
+    static HierarchyIndex getSharedIndex() {
+        HierarchyIndex index = Global.getAnalysisCache().getOptionalDatabase(HierarchyIndex.class);
+        return (index != null) ? index : new HierarchyIndex();
+    }
+
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            index.add(lookup.lookupClass(classContext.getJavaClass().getClassName()));
+        } catch (ClassNotFoundException e) {
+            // Reported by the detectors when they visit the class.
+        }
+    }
+
+    @Override
+    public void report() {}
+
+    private static List<TypeCensus> takeCensus(BugReporter bugReporter) {
+        List<TypeCensus> censuses = new ArrayList<>();
+        String directory = SystemProperties.getProperty(CENSUS_DIR_PROPERTY);
+        if (directory == null) {
+            return censuses;
+        }
+        Iterator<? extends ICodeBase> codeBases =
+                Global.getAnalysisCache().getClassPath().auxCodeBaseIterator();
+        while (codeBases.hasNext()) {
+            String path = codeBases.next().getPathName();
+            if (path == null || !path.endsWith(".jar")) {
+                continue;
+            }
+            try {
+                censuses.add(TypeCensus.forJar(new File(path), new File(directory)));
+            } catch (IOException e) {
+                // The jar's types are read from its class files instead.
+                bugReporter.logError("Could not take a census of " + path, e);
+            }
+        }
+        return censuses;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Resolves types from class files held in memory, such as an IDE's compiler output, falling back
+ * to another lookup for everything else.
+ */
+class InMemoryClassLookup implements ClassLookup {
+
+    private final ImmutableMap<String, byte[]> classes;
+    private final ClassLookup fallback;
+
+    /** @param classes class file contents, keyed by dotted class name */
+    InMemoryClassLookup(Map<String, byte[]> classes, ClassLookup fallback) {
+        this.classes = ImmutableMap.copyOf(classes);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+        byte[] bytes = classes.get(className);
+        if (bytes == null) {
+            return fallback.lookupClass(className);
+        }
+        try {
+            return ClassHeader.parse(ByteBuffer.wrap(bytes));
+        } catch (IllegalArgumentException e) {
+            throw new ClassNotFoundException(className, e);
+        }
+    }
+
+    @Override
+    public int lookupAccessFlags(String className) throws ClassNotFoundException {
+        return classes.containsKey(className)
+                ? lookupClass(className).getAccessFlags()
+                : fallback.lookupAccessFlags(className);
+    }
+}
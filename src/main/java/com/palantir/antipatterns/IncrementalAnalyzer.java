@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Wraps a {@link ClassAnalyzer}, replaying findings from a {@link ResultCache} for classes that
+ * are byte-for-byte unchanged since an earlier run and whose dependencies, as listed by
+ * {@link ClassAnalyzer#collectDependencies}, are unchanged too.
+ */
+class IncrementalAnalyzer {
+
+    private static final HashCode MISSING = HashCode.fromInt(0);
+
+    private final ClassAnalyzer analyzer;
+    private final ClasspathLookup lookup;
+    private final ResultCache cache;
+    private final ConcurrentMap<String, HashCode> typeHashes = new ConcurrentHashMap<>();
+
+    IncrementalAnalyzer(ClassAnalyzer analyzer, ClasspathLookup lookup, ResultCache cache) {
+        this.analyzer = analyzer;
+        this.lookup = lookup;
+        this.cache = cache;
+    }
+
+    void analyze(ByteBuffer classFile, List<Finding> findings) {
+        HashCode classHash = ResultCache.hash(classFile);
+        ResultCache.Entry cached = cache.get(classHash);
+        if (cached != null && isUpToDate(cached)) {
+            cache.put(classHash, cached);
+            findings.addAll(cached.getFindings());
+            return;
+        }
+        ClassHeader obj = ClassHeader.parse(classFile);
+        List<Finding> classFindings = new ArrayList<>();
+        analyzer.analyze(obj, classFindings);
+        cache.put(classHash, new ResultCache.Entry(dependencies(obj), classFindings));
+        findings.addAll(classFindings);
+    }
+
+    private boolean isUpToDate(ResultCache.Entry entry) {
+        for (Map.Entry<String, HashCode> dependency : entry.getDependencies().entrySet()) {
+            if (!typeHash(dependency.getKey()).equals(dependency.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<String, HashCode> dependencies(ClassHeader obj) {
+        Set<String> types = new TreeSet<>();
+        analyzer.collectDependencies(obj, types);
+        Map<String, HashCode> dependencies = new TreeMap<>();
+        for (String type : types) {
+            dependencies.put(type, typeHash(type));
+        }
+        return dependencies;
+    }
+
+    private HashCode typeHash(String className) {
+        HashCode hash = typeHashes.get(className);
+        if (hash == null) {
+            try {
+                hash = ResultCache.hash(lookup.readClass(className));
+            } catch (ClassNotFoundException e) {
+                hash = MISSING;
+            }
+            typeHashes.putIfAbsent(className, hash);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.util.Arrays;
+
+/**
+ * A set of longs in a single open-addressed array, with no boxing, so sets of hundreds of
+ * thousands of fingerprints stay compact and lookups take constant time. Zero, which marks empty
+ * slots, is tracked separately. Not thread-safe.
+ */
+final class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    LongHashSet(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    boolean add(long value) {
+        if (value == 0) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+        int slot = slot(value);
+        while (table[slot] != 0) {
+            if (table[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        size++;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int slot = slot(value);
+        while (table[slot] != 0) {
+            if (table[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size + (containsZero ? 1 : 0);
+    }
+
+    long[] toSortedArray() {
+        long[] values = new long[size()];
+        int count = 0;
+        if (containsZero) {
+            values[count++] = 0;
+        }
+        for (long value : table) {
+            if (value != 0) {
+                values[count++] = value;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private int slot(long value) {
+        // Spread the high bits down, in case values are not already well mixed.
+        long mixed = value * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    private void rehash() {
+        long[] old = table;
+        allocate(old.length * 2);
+        size = 0;
+        for (long value : old) {
+            if (value != 0) {
+                add(value);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The bug pattern descriptions in messages.xml, for reporting findings outside of FindBugs. They
+ * are read from the build's copy in this package, as FindBugs' own messages.xml may come first on
+ * the classpath.
+ */
+class Messages {
+
+    private static final String RESOURCE = "messages.xml";
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{(\\d+)\\}");
+    private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static class Holder {
+        static final Messages INSTANCE = load();
+    }
+
+    private final Map<String, String> shortDescriptions;
+    private final Map<String, String> longDescriptions;
+    private final Map<String, String> details;
+
+    private Messages(
+            Map<String, String> shortDescriptions,
+            Map<String, String> longDescriptions,
+            Map<String, String> details) {
+        this.shortDescriptions = shortDescriptions;
+        this.longDescriptions = longDescriptions;
+        this.details = details;
+    }
+
+    static Messages get() {
+        return Holder.INSTANCE;
+    }
+
+    /** The one-line description of {@code pattern}, e.g. "Returns final type". */
+    String getShortDescription(String pattern) {
+        return checkKnown(pattern, shortDescriptions.get(pattern));
+    }
+
+    /** The detailed description of {@code pattern}, as an HTML fragment. */
+    String getDetailsHtml(String pattern) {
+        return checkKnown(pattern, details.get(pattern));
+    }
+
+    /** The detailed description of {@code pattern}, as plain text. */
+    String getDetailsText(String pattern) {
+        String html = getDetailsHtml(pattern);
+        String text = HTML_TAG.matcher(html).replaceAll("").replace("&mdash;", "\u2014");
+        return WHITESPACE.matcher(text).replaceAll(" ").trim();
+    }
+
+    /**
+     * Formats the long description of {@code pattern}, substituting each {n} placeholder with the
+     * nth annotation, in the order the detectors add them to their bug instances.
+     */
+    String format(String pattern, Object... annotations) {
+        String description = checkKnown(pattern, longDescriptions.get(pattern));
+        StringBuffer message = new StringBuffer();
+        Matcher matcher = PLACEHOLDER.matcher(description);
+        while (matcher.find()) {
+            Object annotation = annotations[Integer.parseInt(matcher.group(1))];
+            matcher.appendReplacement(message, Matcher.quoteReplacement(String.valueOf(annotation)));
+        }
+        matcher.appendTail(message);
+        return message.toString();
+    }
+
+    private static String checkKnown(String pattern, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Unknown bug pattern " + pattern);
+        }
+        return value;
+    }
+
+    private static Messages load() {
+        try (InputStream in = Messages.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException(RESOURCE + " not found beside " + Messages.class);
+            }
+            Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in)
+                    .getDocumentElement();
+            ImmutableMap.Builder<String, String> shortDescriptions = ImmutableMap.builder();
+            ImmutableMap.Builder<String, String> longDescriptions = ImmutableMap.builder();
+            ImmutableMap.Builder<String, String> details = ImmutableMap.builder();
+            NodeList patterns = root.getElementsByTagName("BugPattern");
+            for (int i = 0; i < patterns.getLength(); i++) {
+                Element pattern = (Element) patterns.item(i);
+                String type = pattern.getAttribute("type");
+                shortDescriptions.put(type, childText(pattern, "ShortDescription"));
+                longDescriptions.put(type, childText(pattern, "LongDescription"));
+                details.put(type, childText(pattern, "Details"));
+            }
+            return new Messages(
+                    shortDescriptions.build(), longDescriptions.build(), details.build());
+        } catch (IOException | ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Could not load " + RESOURCE, e);
+        }
+    }
+
+    private static String childText(Element element, String tagName) {
+        NodeList children = element.getElementsByTagName(tagName);
+        return (children.getLength() == 0) ? "" : children.item(0).getTextContent().trim();
+    }
+}
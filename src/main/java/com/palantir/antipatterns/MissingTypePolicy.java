@@ -0,0 +1,26 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+/** What to do when a type referenced by an analyzed class cannot be found. */
+public enum MissingTypePolicy {
+    /** Assume the type is fine, and list it in the summary at the end of the run. */
+    SKIP,
+    /** As {@link #SKIP}, but also warn the first time each type is found to be missing. */
+    WARN_ONCE,
+    /** Abandon analysis of any class referencing the type. */
+    FAIL
+}
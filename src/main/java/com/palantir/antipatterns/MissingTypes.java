@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+
+import edu.umd.cs.findbugs.SystemProperties;
+
+/**
+ * Remembers the referenced types that could not be found, and applies a
+ * {@link MissingTypePolicy} to them. Lookups through {@link #track} act as a negative cache: a
+ * type already known to be missing is not looked up again, and the exception thrown for it
+ * carries no stack trace, so partial classpaths with thousands of missing types stay cheap. Safe
+ * to use from multiple threads.
+ */
+class MissingTypes {
+
+    static final String POLICY_PROPERTY = "antipatterns.missing.types";
+
+    private static final int SUMMARY_LIMIT = 20;
+
+    /** Told of each type the first time it is found missing, under the WARN_ONCE policy. */
+    interface Warning {
+        void missingType(ClassNotFoundException e);
+    }
+
+    private final MissingTypePolicy policy;
+    private final Warning warning;
+    private final Set<String> missing =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    MissingTypes(MissingTypePolicy policy, Warning warning) {
+        this.policy = policy;
+        this.warning = warning;
+    }
+
+    /** The policy named by the {@code antipatterns.missing.types} system property, if set. */
+    static MissingTypePolicy policyFromSystemProperties() {
+        String policy = SystemProperties.getProperty(POLICY_PROPERTY);
+        return (policy == null) ? MissingTypePolicy.WARN_ONCE : parsePolicy(POLICY_PROPERTY, policy);
+    }
+
+    /**
+     * Parses a policy name, in any case.
+     *
+     * @param setting the option or property the name was given in, for the error message
+     * @throws IllegalArgumentException listing the valid names, if {@code policy} is not one
+     */
+    static MissingTypePolicy parsePolicy(String setting, String policy) {
+        try {
+            return MissingTypePolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            String validPolicies =
+                    Joiner.on(", ").join(MissingTypePolicy.values()).toLowerCase(Locale.ROOT);
+            throw new IllegalArgumentException("Invalid " + setting + " '" + policy
+                    + "': expected one of " + validPolicies, e);
+        }
+    }
+
+    /**
+     * Wraps a lookup to remember the types it cannot find. Under {@link MissingTypePolicy#FAIL},
+     * a missing type throws an unchecked exception, abandoning the class being analyzed.
+     */
+    ClassLookup track(final ClassLookup lookup) {
+        return new ClassLookup() {
+            @Override
+            public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+                checkNotKnownMissing(className);
+                try {
+                    return lookup.lookupClass(className);
+                } catch (ClassNotFoundException e) {
+                    throw missingType(className, e);
+                }
+            }
+
+            @Override
+            public int lookupAccessFlags(String className) throws ClassNotFoundException {
+                checkNotKnownMissing(className);
+                try {
+                    return lookup.lookupAccessFlags(className);
+                } catch (ClassNotFoundException e) {
+                    throw missingType(className, e);
+                }
+            }
+        };
+    }
+
+    /** Forgets that the named types were missing, e.g. because they have since been compiled. */
+    void forget(Collection<String> classNames) {
+        missing.removeAll(classNames);
+    }
+
+    int size() {
+        return missing.size();
+    }
+
+    /** A one-line summary of the missing types, or null if none were. */
+    String summary() {
+        if (missing.isEmpty()) {
+            return null;
+        }
+        ImmutableSortedSet<String> types = ImmutableSortedSet.copyOf(missing);
+        StringBuilder summary = new StringBuilder()
+                .append("Referenced types not found (").append(types.size()).append("): ")
+                .append(Joiner.on(", ").join(Iterables.limit(types, SUMMARY_LIMIT)));
+        if (types.size() > SUMMARY_LIMIT) {
+            summary.append(" and ").append(types.size() - SUMMARY_LIMIT).append(" more");
+        }
+        return summary.toString();
+    }
+
+    private void checkNotKnownMissing(String className) throws ClassNotFoundException {
+        if (missing.contains(className)) {
+            throw applyPolicy(new KnownMissingException(className));
+        }
+    }
+
+    private ClassNotFoundException missingType(String className, ClassNotFoundException e) {
+        if (missing.add(className) && policy == MissingTypePolicy.WARN_ONCE) {
+            warning.missingType(e);
+        }
+        return applyPolicy(e);
+    }
+
+    private ClassNotFoundException applyPolicy(ClassNotFoundException e) {
+        if (policy == MissingTypePolicy.FAIL) {
+            throw new RuntimeException("Missing type " + e.getMessage(), e);
+        }
+        return e;
+    }
+
+    /** Thrown for repeat lookups of a missing type; skips the cost of filling in a stack trace. */
+    private static final class KnownMissingException extends ClassNotFoundException {
+        private static final long serialVersionUID = 1L;
+
+        KnownMissingException(String className) {
+            super(className);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
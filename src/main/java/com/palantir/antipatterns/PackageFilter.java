@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+
+import edu.umd.cs.findbugs.SystemProperties;
+
+/**
+ * Decides which packages' types {@link FinalSignatureRule} trusts without resolving them. Types in
+ * an excluded package, or any of its subpackages, are never looked up and never reported; an
+ * included package re-enables checking for its own subtree. The most specific rule wins, and only
+ * whole package names match, so excluding {@code java} does not exclude {@code javax}.
+ *
+ * <p>Rules are compiled into a character trie, so matching a type costs one walk of its package
+ * name and allocates nothing. Both dotted names and the slash-separated names of JVM descriptors
+ * are accepted. Instances are immutable and safe to share between threads.
+ */
+final class PackageFilter {
+
+    static final String EXCLUDE_PROPERTY = "antipatterns.packages.exclude";
+    static final String INCLUDE_PROPERTY = "antipatterns.packages.include";
+    static final String FILE_PROPERTY = "antipatterns.packages.file";
+
+    /** The default filter, which trusts the JDK's java.* packages. */
+    static final PackageFilter DEFAULT = builder().build();
+
+    private static final Splitter LIST_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private static final class Node {
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private Boolean excluded;
+
+        Node child(char label) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == label) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAddChild(char label) {
+            Node child = child(label);
+            if (child == null) {
+                child = new Node();
+                labels = Arrays.copyOf(labels, labels.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                labels[labels.length - 1] = label;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    private final Node root;
+    private final String description;
+
+    private PackageFilter(Map<String, Boolean> rules) {
+        this.root = new Node();
+        for (Map.Entry<String, Boolean> rule : rules.entrySet()) {
+            Node node = root;
+            for (int i = 0; i < rule.getKey().length(); i++) {
+                node = node.getOrAddChild(rule.getKey().charAt(i));
+            }
+            node.excluded = rule.getValue();
+        }
+        StringBuilder description = new StringBuilder();
+        for (Map.Entry<String, Boolean> rule : rules.entrySet()) {
+            description.append(rule.getValue() ? '-' : '+').append(rule.getKey()).append(' ');
+        }
+        this.description = description.toString().trim();
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The default rules, plus any configured through the {@code antipatterns.packages.exclude} and
+     * {@code antipatterns.packages.include} system properties (comma-separated package lists) and
+     * the {@code antipatterns.packages.file} system property (see {@link Builder#addFile}).
+     */
+    static PackageFilter fromSystemProperties() {
+        Builder builder = builder();
+        String excluded = SystemProperties.getProperty(EXCLUDE_PROPERTY);
+        if (excluded != null) {
+            builder.exclude(LIST_SPLITTER.split(excluded));
+        }
+        String included = SystemProperties.getProperty(INCLUDE_PROPERTY);
+        if (included != null) {
+            builder.include(LIST_SPLITTER.split(included));
+        }
+        String file = SystemProperties.getProperty(FILE_PROPERTY);
+        if (file != null) {
+            try {
+                builder.addFile(new File(file));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(
+                        "Could not read " + FILE_PROPERTY + " " + file, e);
+            }
+        }
+        return builder.build();
+    }
+
+    static final class Builder {
+        private final Map<String, Boolean> rules = new TreeMap<>();
+
+        private Builder() {
+            rules.put("java", true);
+        }
+
+        Builder exclude(Iterable<String> packageNames) {
+            for (String packageName : packageNames) {
+                rules.put(normalize(packageName), true);
+            }
+            return this;
+        }
+
+        Builder include(Iterable<String> packageNames) {
+            for (String packageName : packageNames) {
+                rules.put(normalize(packageName), false);
+            }
+            return this;
+        }
+
+        /**
+         * Adds rules from a file with one package per line: {@code -com.google} to exclude a
+         * package tree, {@code +com.google.mycompany} to include one. Blank lines and lines
+         * starting with {@code #} are ignored.
+         */
+        Builder addFile(File file) throws IOException {
+            for (String line : Files.readLines(file, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.startsWith("-")) {
+                    rules.put(normalize(line.substring(1)), true);
+                } else if (line.startsWith("+")) {
+                    rules.put(normalize(line.substring(1)), false);
+                } else {
+                    throw new IllegalArgumentException(
+                            "Expected +package or -package in " + file + ": " + line);
+                }
+            }
+            return this;
+        }
+
+        PackageFilter build() {
+            return new PackageFilter(rules);
+        }
+
+        private static String normalize(String packageName) {
+            String normalized = packageName.trim().replace('/', '.');
+            if (normalized.endsWith(".*")) {
+                normalized = normalized.substring(0, normalized.length() - 2);
+            }
+            if (normalized.endsWith(".")) {
+                normalized = normalized.substring(0, normalized.length() - 1);
+            }
+            if (normalized.isEmpty()) {
+                throw new IllegalArgumentException("Empty package name");
+            }
+            return normalized;
+        }
+    }
+
+    boolean isExcluded(String className) {
+        return isExcluded(className, 0, className.length());
+    }
+
+    /**
+     * True if the type named by {@code name[start, end)}, with either '.' or '/' separators, is in
+     * an excluded package.
+     */
+    boolean isExcluded(CharSequence name, int start, int end) {
+        Node node = root;
+        boolean excluded = false;
+        for (int i = start; i < end; i++) {
+            char c = name.charAt(i);
+            if (c == '/') {
+                c = '.';
+            }
+            if (c == '.' && node.excluded != null) {
+                // Matched a whole package name.
+                excluded = node.excluded;
+            }
+            node = node.child(c);
+            if (node == null) {
+                break;
+            }
+        }
+        return excluded;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
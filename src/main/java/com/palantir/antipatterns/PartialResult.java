@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The output of analyzing one shard of a larger input, e.g. one jar, to be merged with the other
+ * shards' results. Holds the findings of each class whose verdicts could all be reached within
+ * the shard, and, for classes that referenced types the shard could not find, a skeleton of the
+ * class so the merge can check it again. A skeleton of every class in the shard is kept too,
+ * recording just the facts other shards' classes might ask about it.
+ */
+class PartialResult {
+
+    private static final int MAGIC = 0x50544150;  // "PTAP"
+    private static final int VERSION = 2;
+
+    /** What a shard found out about one class, in input order. */
+    static final class ClassResult {
+        private final String className;
+        private final ImmutableList<Finding> findings;
+        private final byte[] skeleton;
+
+        private ClassResult(String className, List<Finding> findings, byte[] skeleton) {
+            this.className = className;
+            this.findings = ImmutableList.copyOf(findings);
+            this.skeleton = skeleton;
+        }
+
+        static ClassResult resolved(String className, List<Finding> findings) {
+            return new ClassResult(className, findings, null);
+        }
+
+        /** A class whose verdicts must be reached again once every shard's classes are known. */
+        static ClassResult deferred(String className, byte[] skeleton) {
+            return new ClassResult(className, ImmutableList.<Finding>of(), skeleton);
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        boolean isDeferred() {
+            return skeleton != null;
+        }
+
+        ImmutableList<Finding> getFindings() {
+            return findings;
+        }
+
+        /** The class's public and protected signatures, as from {@link ClassHeader#toSkeleton}. */
+        byte[] getSkeleton() {
+            return skeleton;
+        }
+    }
+
+    private final String configuration;
+    private final ApiSurface apiSurface;
+    private final Map<String, byte[]> classes = new ConcurrentSkipListMap<>();
+    private final List<ClassResult> results = new ArrayList<>();
+
+    /**
+     * @param configuration any settings that change which findings a class produces; only results
+     *     with the same configuration can be merged
+     * @param apiSurface the classes the shard checked final signatures in
+     */
+    PartialResult(String configuration, ApiSurface apiSurface) {
+        this.configuration = configuration;
+        this.apiSurface = apiSurface;
+    }
+
+    String getConfiguration() {
+        return configuration;
+    }
+
+    ApiSurface getApiSurface() {
+        return apiSurface;
+    }
+
+    /**
+     * Records the facts about a class in the shard that other classes' verdicts may need. Safe to
+     * call from multiple threads.
+     */
+    void addClass(ClassHeader header) {
+        classes.put(header.getClassName(), header.toSkeleton(false));
+    }
+
+    /** Adds a class's result. Classes should be added in input order. */
+    void addResult(ClassResult result) {
+        results.add(result);
+    }
+
+    /** Hierarchy skeletons of the shard's classes, keyed by dotted class name. */
+    Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    List<ClassResult> getResults() {
+        return results;
+    }
+
+    static PartialResult load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a partial result");
+            }
+            String configuration = in.readUTF();
+            ApiSurface apiSurface = ApiSurface.ALL;
+            if (in.readBoolean()) {
+                List<String> packages = new ArrayList<>();
+                int packageCount = in.readInt();
+                for (int i = 0; i < packageCount; i++) {
+                    packages.add(in.readUTF());
+                }
+                apiSurface = ApiSurface.exporting(packages);
+            }
+            PartialResult partial = new PartialResult(configuration, apiSurface);
+            int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++) {
+                partial.classes.put(in.readUTF(), readBytes(in));
+            }
+            int resultCount = in.readInt();
+            for (int i = 0; i < resultCount; i++) {
+                String className = in.readUTF();
+                if (in.readBoolean()) {
+                    partial.addResult(ClassResult.deferred(className, readBytes(in)));
+                } else {
+                    int findingCount = in.readInt();
+                    List<Finding> findings = new ArrayList<>(findingCount);
+                    for (int j = 0; j < findingCount; j++) {
+                        findings.add(ResultCache.readFinding(in));
+                    }
+                    partial.addResult(ClassResult.resolved(className, findings));
+                }
+            }
+            return partial;
+        }
+    }
+
+    /** Writes the result, replacing the file atomically. */
+    void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(configuration);
+            out.writeBoolean(apiSurface.isRestricted());
+            if (apiSurface.isRestricted()) {
+                out.writeInt(apiSurface.getPackages().size());
+                for (String packageName : apiSurface.getPackages()) {
+                    out.writeUTF(packageName);
+                }
+            }
+            out.writeInt(classes.size());
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeBytes(out, entry.getValue());
+            }
+            out.writeInt(results.size());
+            for (ClassResult result : results) {
+                out.writeUTF(result.getClassName());
+                out.writeBoolean(result.isDeferred());
+                if (result.isDeferred()) {
+                    writeBytes(out, result.getSkeleton());
+                } else {
+                    out.writeInt(result.getFindings().size());
+                    for (Finding finding : result.getFindings()) {
+                        ResultCache.writeFinding(out, finding);
+                    }
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Wraps a lookup to start reading types before they are asked for, on a small pool of I/O
+ * threads. A class's referenced types are then read concurrently rather than one after another,
+ * which matters when each read is slow, e.g. from a network-mounted build cache. Each prefetched
+ * type is handed to the first lookup of it and then forgotten, as callers cache their verdicts.
+ * A lookup that finds its type still queued reads it at once rather than waiting its turn. The
+ * class files about to be analyzed are read ahead the same way, and handed over parsed, so each
+ * is read only once. At most a fixed number of prefetches are held; beyond that, the oldest are
+ * dropped. Safe to use from multiple threads.
+ */
+class PrefetchingLookup implements ClassLookup, Closeable {
+
+    private static final int MAX_PENDING = 10000;
+
+    private final ClassLookup lookup;
+    private final ThreadPoolExecutor executor;
+    private final Cache<String, FutureTask<ClassHeader>> classes = newPendingCache();
+    private final Cache<String, FutureTask<Integer>> accessFlags = newPendingCache();
+    private final Cache<ClassFileSet.ClassFile, FutureTask<ClassHeader>> classFiles =
+            newPendingCache();
+
+    /** @param threads how many reads to have in flight at once */
+    PrefetchingLookup(ClassLookup lookup, int threads) {
+        this.lookup = lookup;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("antipatterns-prefetch-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /** Starts reading a class, for a later {@link #lookupClass}. */
+    void prefetchClass(final String className) {
+        prefetch(classes, className, new Callable<ClassHeader>() {
+            @Override
+            public ClassHeader call() throws ClassNotFoundException {
+                return lookup.lookupClass(className);
+            }
+        });
+    }
+
+    /** Starts reading a class's access flags, for a later {@link #lookupAccessFlags}. */
+    void prefetchAccessFlags(final String className) {
+        prefetch(accessFlags, className, new Callable<Integer>() {
+            @Override
+            public Integer call() throws ClassNotFoundException {
+                return lookup.lookupAccessFlags(className);
+            }
+        });
+    }
+
+    /**
+     * Starts reading a class file that will be analyzed shortly, for a later
+     * {@link #readClassFile}.
+     *
+     * @param read reads and parses the class file
+     */
+    void prefetchClassFile(ClassFileSet.ClassFile classFile, Callable<ClassHeader> read) {
+        prefetch(classFiles, classFile, read);
+    }
+
+    /**
+     * Returns the class file read ahead by {@link #prefetchClassFile}, or reads it through
+     * {@code read} if it was never prefetched.
+     */
+    ClassHeader readClassFile(ClassFileSet.ClassFile classFile, Callable<ClassHeader> read)
+            throws IOException {
+        FutureTask<ClassHeader> prefetched = classFiles.asMap().remove(classFile);
+        if (prefetched == null) {
+            prefetched = new FutureTask<>(read);
+        }
+        return get(prefetched, IOException.class);
+    }
+
+    @Override
+    public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+        FutureTask<ClassHeader> prefetched = classes.asMap().remove(className);
+        return (prefetched == null)
+                ? lookup.lookupClass(className) : get(prefetched, ClassNotFoundException.class);
+    }
+
+    @Override
+    public int lookupAccessFlags(String className) throws ClassNotFoundException {
+        FutureTask<Integer> prefetched = accessFlags.asMap().remove(className);
+        return (prefetched == null) ? lookup.lookupAccessFlags(className)
+                : get(prefetched, ClassNotFoundException.class);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private <K, T> void prefetch(Cache<K, FutureTask<T>> pending, K key, Callable<T> read) {
+        FutureTask<T> task = new FutureTask<>(read);
+        if (pending.asMap().putIfAbsent(key, task) != null) {
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The queue is full; the type will be read when it is asked for.
+            pending.asMap().remove(key, task);
+        }
+    }
+
+    private static <T, X extends Exception> T get(FutureTask<T> task, Class<X> declaredType)
+            throws X {
+        // Reads the type in this thread if no prefetch thread has started on it yet.
+        task.run();
+        try {
+            return Uninterruptibles.getUninterruptibly(task);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), declaredType);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static <K, T> Cache<K, FutureTask<T>> newPendingCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(MAX_PENDING)
+                .removalListener(new RemovalListener<K, FutureTask<T>>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<K, FutureTask<T>> removal) {
+                        if (removal.getCause() == RemovalCause.SIZE) {
+                            // Never asked for, e.g. resolved through another class meanwhile.
+                            removal.getValue().cancel(false);
+                        }
+                    }
+                })
+                .build();
+    }
+}
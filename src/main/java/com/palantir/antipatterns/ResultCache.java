@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Findings from earlier runs, keyed by the content hash of the class they were found in. Each
+ * entry also records the hash of every type its verdicts depended on, so it can be discarded if
+ * any of them change, e.g. if a parameter type stops being final.
+ *
+ * <p>Only entries looked up or added during a run are saved, so classes that no longer exist
+ * drop out of the cache.
+ */
+class ResultCache {
+
+    private static final int MAGIC = 0x50544143;  // "PTAC"
+    private static final int VERSION = 2;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /** The findings for one class, and the hashes of the types they depended on. */
+    static final class Entry {
+        private final ImmutableMap<String, HashCode> dependencies;
+        private final ImmutableList<Finding> findings;
+
+        Entry(Map<String, HashCode> dependencies, List<Finding> findings) {
+            this.dependencies = ImmutableMap.copyOf(dependencies);
+            this.findings = ImmutableList.copyOf(findings);
+        }
+
+        ImmutableMap<String, HashCode> getDependencies() {
+            return dependencies;
+        }
+
+        ImmutableList<Finding> getFindings() {
+            return findings;
+        }
+    }
+
+    private final String configuration;
+    private final Map<HashCode, Entry> previous;
+    private final ConcurrentMap<HashCode, Entry> current = new ConcurrentHashMap<>();
+
+    private ResultCache(String configuration, Map<HashCode, Entry> previous) {
+        this.configuration = configuration;
+        this.previous = previous;
+    }
+
+    /** Hashes a class file, without moving the buffer's position. */
+    static HashCode hash(ByteBuffer classFile) {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        if (classFile.hasArray()) {
+            hasher.putBytes(classFile.array(), classFile.arrayOffset() + classFile.position(),
+                    classFile.remaining());
+        } else {
+            ByteBuffer input = classFile.duplicate();
+            byte[] chunk = new byte[Math.min(8192, input.remaining())];
+            while (input.hasRemaining()) {
+                int length = Math.min(chunk.length, input.remaining());
+                input.get(chunk, 0, length);
+                hasher.putBytes(chunk, 0, length);
+            }
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Loads the cache, or starts an empty one if the file is missing, unreadable, or was written
+     * under a different {@code configuration} (any settings that change which findings a class
+     * produces).
+     */
+    static ResultCache load(File file, String configuration) {
+        ResultCache empty = new ResultCache(configuration, ImmutableMap.<HashCode, Entry>of());
+        if (!file.isFile()) {
+            return empty;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(configuration)) {
+                return empty;
+            }
+            int entryCount = in.readInt();
+            Map<HashCode, Entry> entries = new HashMap<>(entryCount * 2);
+            for (int i = 0; i < entryCount; i++) {
+                HashCode classHash = readHash(in);
+                int dependencyCount = in.readInt();
+                ImmutableMap.Builder<String, HashCode> dependencies = ImmutableMap.builder();
+                for (int j = 0; j < dependencyCount; j++) {
+                    dependencies.put(in.readUTF(), readHash(in));
+                }
+                int findingCount = in.readInt();
+                ImmutableList.Builder<Finding> findings = ImmutableList.builder();
+                for (int j = 0; j < findingCount; j++) {
+                    findings.add(readFinding(in));
+                }
+                entries.put(classHash, new Entry(dependencies.build(), findings.build()));
+            }
+            return new ResultCache(configuration, entries);
+        } catch (EOFException e) {
+            // Truncated by an interrupted run; start afresh.
+            return empty;
+        } catch (IOException e) {
+            return empty;
+        }
+    }
+
+    Entry get(HashCode classHash) {
+        Entry entry = current.get(classHash);
+        return (entry != null) ? entry : previous.get(classHash);
+    }
+
+    void put(HashCode classHash, Entry entry) {
+        current.put(classHash, entry);
+    }
+
+    /** Writes the entries used this run, replacing the file atomically. */
+    void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(configuration);
+            out.writeInt(current.size());
+            for (Map.Entry<HashCode, Entry> entry : current.entrySet()) {
+                writeHash(out, entry.getKey());
+                Map<String, HashCode> dependencies = entry.getValue().getDependencies();
+                out.writeInt(dependencies.size());
+                for (Map.Entry<String, HashCode> dependency : dependencies.entrySet()) {
+                    out.writeUTF(dependency.getKey());
+                    writeHash(out, dependency.getValue());
+                }
+                List<Finding> findings = entry.getValue().getFindings();
+                out.writeInt(findings.size());
+                for (Finding finding : findings) {
+                    writeFinding(out, finding);
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static HashCode readHash(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        in.readFully(bytes);
+        return HashCode.fromBytes(bytes);
+    }
+
+    private static void writeHash(DataOutputStream out, HashCode hash) throws IOException {
+        byte[] bytes = hash.asBytes();
+        out.writeByte(bytes.length);
+        out.write(bytes);
+    }
+
+    static Finding readFinding(DataInputStream in) throws IOException {
+        Finding.Pattern pattern;
+        try {
+            pattern = Finding.Pattern.forBugType(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+        return new Finding(
+                pattern,
+                in.readUTF(),
+                readNullableString(in),
+                readNullableString(in),
+                in.readInt(),
+                readNullableString(in));
+    }
+
+    static void writeFinding(DataOutputStream out, Finding finding) throws IOException {
+        out.writeUTF(finding.getPattern().getBugType());
+        out.writeUTF(finding.getClassName());
+        writeNullableString(out, finding.getMethodName());
+        writeNullableString(out, finding.getMethodSignature());
+        out.writeInt(finding.getParameter());
+        writeNullableString(out, finding.getType());
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
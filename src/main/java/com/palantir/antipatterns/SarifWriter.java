@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams findings to a SARIF 2.1.0 log, for code-scanning pipelines. Rule metadata is written up
+ * front from messages.xml; each finding is then written out as soon as it is received, so memory
+ * use does not grow with the number of findings. The log is only complete once closed.
+ *
+ * <p>Class files do not record source paths, so each result's physical location is the source
+ * file conventionally holding its top-level class, relative to the {@code SRCROOT} base.
+ */
+public final class SarifWriter implements FindingListener, Closeable {
+
+    private static final String SCHEMA = "https://json.schemastore.org/sarif-2.1.0.json";
+    private static final String INFORMATION_URI = "https://github.com/palantir/antipatterns";
+
+    private final Writer out;
+    private boolean firstResult = true;
+
+    public SarifWriter(File file) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    public SarifWriter(Writer out) throws IOException {
+        this.out = new BufferedWriter(out);
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        Messages messages = Messages.get();
+        out.write("{\"$schema\":");
+        writeString(SCHEMA);
+        out.write(",\"version\":\"2.1.0\",\"runs\":[{\"tool\":{\"driver\":{\"name\":\"antipatterns\"");
+        out.write(",\"informationUri\":");
+        writeString(INFORMATION_URI);
+        out.write(",\"rules\":[");
+        for (Finding.Pattern pattern : Finding.Pattern.values()) {
+            String bugType = pattern.getBugType();
+            if (pattern.ordinal() > 0) {
+                out.write(',');
+            }
+            out.write("\n{\"id\":");
+            writeString(bugType);
+            out.write(",\"shortDescription\":{\"text\":");
+            writeString(messages.getShortDescription(bugType));
+            out.write("},\"fullDescription\":{\"text\":");
+            writeString(messages.getDetailsText(bugType));
+            out.write("},\"defaultConfiguration\":{\"level\":");
+            writeString(level(pattern));
+            out.write("}}");
+        }
+        out.write("]}},\"columnKind\":\"utf16CodeUnits\",\"results\":[");
+    }
+
+    @Override
+    public void foundAntipattern(Finding finding) throws IOException {
+        if (!firstResult) {
+            out.write(',');
+        }
+        firstResult = false;
+        out.write("\n{\"ruleId\":");
+        writeString(finding.getPattern().getBugType());
+        out.write(",\"ruleIndex\":");
+        out.write(Integer.toString(finding.getPattern().ordinal()));
+        out.write(",\"level\":");
+        writeString(level(finding.getPattern()));
+        out.write(",\"message\":{\"text\":");
+        writeString(finding.getMessage());
+        out.write("},\"locations\":[{\"physicalLocation\":{\"artifactLocation\":{\"uri\":");
+        writeString(sourcePath(finding.getClassName()));
+        out.write(",\"uriBaseId\":\"SRCROOT\"}},\"logicalLocations\":[{\"fullyQualifiedName\":");
+        if (finding.getMethodName() == null) {
+            writeString(finding.getClassName());
+            out.write(",\"kind\":\"type\"");
+        } else {
+            writeString(finding.getClassName() + "." + finding.getMethodName());
+            out.write(",\"decoratedName\":");
+            writeString(finding.getMethodName() + finding.getMethodSignature());
+            out.write(",\"kind\":\"function\"");
+        }
+        out.write("}]}]}");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.write("\n]}]}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String level(Finding.Pattern pattern) {
+        // Matches the detectors' priorities: HIGH for extending concrete types, NORMAL otherwise.
+        return (pattern == Finding.Pattern.EXTENDS_CONCRETE_TYPE) ? "error" : "warning";
+    }
+
+    /** The conventional source file of a class, e.g. com/foo/Bar.java for com.foo.Bar$Inner. */
+    private static String sourcePath(String className) {
+        int nested = className.indexOf('$', className.lastIndexOf('.') + 1);
+        String topLevel = (nested < 0) ? className : className.substring(0, nested);
+        return topLevel.replace('.', '/') + ".java";
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Analyzes class files on several cores. The input is split into contiguous shards, several per
+ * thread so that a run of unusually expensive classes does not hold up the others. Each shard
+ * buffers its own results, usually findings, and the buffers are passed on in shard order as soon
+ * as every earlier shard is done, so the output is exactly that of a serial run, whatever order
+ * the shards complete in, and only shards that finished early are held in memory. An optional
+ * {@link Lookahead} is told of each class file a little before it is analyzed.
+ */
+class ShardedAnalysis {
+
+    /** Analyzes one class file, appending any results. Must be safe to call concurrently. */
+    interface ClassTask<R> {
+        void analyze(ClassFileSet.ClassFile classFile, List<R> results);
+    }
+
+    /** Receives results in input order. */
+    interface ResultListener<R> {
+        void result(R result) throws IOException;
+    }
+
+    /** Told of class files shortly before they are analyzed, e.g. to read what they need. */
+    interface Lookahead {
+        void upcoming(ClassFileSet.ClassFile classFile);
+    }
+
+    private static final int SHARDS_PER_THREAD = 4;
+    /** How many class files ahead of the one being analyzed the lookahead is told of. */
+    private static final int LOOKAHEAD = 16;
+
+    private ShardedAnalysis() {}
+
+    /** As {@link #run}, passing findings to a {@link FindingListener}. */
+    static void runForFindings(
+            List<ClassFileSet.ClassFile> classFiles,
+            int parallelism,
+            ClassTask<Finding> task,
+            FindingListener listener) throws IOException {
+        runForFindings(classFiles, parallelism, null, task, listener);
+    }
+
+    static void runForFindings(
+            List<ClassFileSet.ClassFile> classFiles,
+            int parallelism,
+            Lookahead lookahead,
+            ClassTask<Finding> task,
+            final FindingListener listener) throws IOException {
+        run(classFiles, parallelism, lookahead, task, new ResultListener<Finding>() {
+            @Override
+            public void result(Finding finding) throws IOException {
+                listener.foundAntipattern(finding);
+            }
+        });
+    }
+
+    static <R> void run(
+            List<ClassFileSet.ClassFile> classFiles,
+            int parallelism,
+            ClassTask<R> task,
+            ResultListener<R> listener) throws IOException {
+        run(classFiles, parallelism, null, task, listener);
+    }
+
+    /** @param lookahead if not null, told of each class file shortly before it is analyzed */
+    static <R> void run(
+            final List<ClassFileSet.ClassFile> classFiles,
+            int parallelism,
+            final Lookahead lookahead,
+            final ClassTask<R> task,
+            ResultListener<R> listener) throws IOException {
+        int shardCount = Math.min(classFiles.size(), parallelism * SHARDS_PER_THREAD);
+        if (shardCount == 0) {
+            return;
+        }
+        if (parallelism == 1 || shardCount == 1) {
+            // Not worth starting a pool, e.g. for the handful of classes an IDE recompiles.
+            List<R> results = new ArrayList<>();
+            for (int i = 0; i < classFiles.size(); i++) {
+                lookAhead(classFiles, i, lookahead);
+                task.analyze(classFiles.get(i), results);
+                emit(results, listener);
+            }
+            return;
+        }
+        List<Callable<List<R>>> shards = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            final List<ClassFileSet.ClassFile> shardFiles = classFiles.subList(
+                    (int) ((long) shard * classFiles.size() / shardCount),
+                    (int) ((long) (shard + 1) * classFiles.size() / shardCount));
+            shards.add(new Callable<List<R>>() {
+                @Override
+                public List<R> call() {
+                    List<R> results = new ArrayList<>();
+                    for (int i = 0; i < shardFiles.size(); i++) {
+                        lookAhead(shardFiles, i, lookahead);
+                        task.analyze(shardFiles.get(i), results);
+                    }
+                    return results;
+                }
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<List<R>>> results = new ArrayList<>(shardCount);
+            for (Callable<List<R>> shard : shards) {
+                results.add(pool.submit(shard));
+            }
+            for (int shard = 0; shard < shardCount; shard++) {
+                emit(results.get(shard).get(), listener);
+                // Let the shard's results be collected.
+                results.set(shard, null);
+            }
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during analysis", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Tells the lookahead of the class file {@code LOOKAHEAD} places after {@code index}, or, at
+     * the start, of every class file up to there.
+     */
+    private static void lookAhead(
+            List<ClassFileSet.ClassFile> classFiles, int index, Lookahead lookahead) {
+        if (lookahead == null) {
+            return;
+        }
+        int end = Math.min(classFiles.size(), index + LOOKAHEAD + 1);
+        for (int i = (index == 0) ? 0 : index + LOOKAHEAD; i < end; i++) {
+            lookahead.upcoming(classFiles.get(i));
+        }
+    }
+
+    private static <R> void emit(List<R> results, ResultListener<R> listener) throws IOException {
+        for (R result : results) {
+            listener.result(result);
+        }
+        results.clear();
+    }
+}
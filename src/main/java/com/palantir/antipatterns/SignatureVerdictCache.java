@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Remembers the outcome of checking each distinct method descriptor, so the many methods sharing
+ * a descriptor such as (Lcom/foo/Id;)Lcom/foo/Result; skip type resolution entirely. Holds at most
+ * a fixed number of descriptors, evicting those least recently used.
+ */
+class SignatureVerdictCache {
+
+    /** The FindBugs property bounding how many descriptors are remembered. */
+    static final String SIZE_PROPERTY = "antipatterns.descriptor.cache.size";
+    static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /** The illegal final types in one method descriptor. */
+    static final class Verdict {
+        private final String returnType;
+        private final int[] params;
+        private final String[] paramTypes;
+
+        Verdict(String returnType, int[] params, String[] paramTypes) {
+            this.returnType = returnType;
+            this.params = params;
+            this.paramTypes = paramTypes;
+        }
+
+        /** The return type, if it is an illegal final type, or null. */
+        String getReturnType() {
+            return returnType;
+        }
+
+        int getIllegalParamCount() {
+            return params.length;
+        }
+
+        /** The index of the {@code i}th illegal parameter. */
+        int getIllegalParam(int i) {
+            return params[i];
+        }
+
+        /** The type of the {@code i}th illegal parameter. */
+        String getIllegalParamType(int i) {
+            return paramTypes[i];
+        }
+    }
+
+    private final Cache<String, Verdict> verdicts;
+
+    SignatureVerdictCache(long maximumSize) {
+        this.verdicts = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /** Returns the cached verdict for the descriptor, or null. */
+    Verdict get(String descriptor) {
+        return verdicts.getIfPresent(descriptor);
+    }
+
+    void put(String descriptor, Verdict verdict) {
+        verdicts.put(descriptor, verdict);
+    }
+
+    void invalidateAll() {
+        verdicts.invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = verdicts.stats();
+        return "SignatureVerdictCache{descriptors=" + verdicts.size() + ", hits=" + stats.hitCount()
+                + ", misses=" + stats.missCount() + ", evictions=" + stats.evictionCount() + "}";
+    }
+}
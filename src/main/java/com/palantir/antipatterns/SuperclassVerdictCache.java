@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers whether each superclass is designed for extension, so popular base classes are only
+ * inspected once per analysis run, however many subclasses they have.
+ */
+class SuperclassVerdictCache {
+
+    private static final String OBJECT = Object.class.getName();
+    private static final String THROWABLE = Throwable.class.getName();
+
+    enum Verdict {
+        ABSTRACT(true),
+        ENUM(true),
+        THROWABLE(true),
+        PROTECTED_CONSTRUCTOR(true),
+        CONCRETE(false),
+        UNRESOLVABLE(true);
+
+        private final boolean permitted;
+
+        private Verdict(boolean permitted) {
+            this.permitted = permitted;
+        }
+
+        boolean isExtensionPermitted() {
+            return permitted;
+        }
+    }
+
+    private final ConcurrentMap<String, Verdict> verdicts = new ConcurrentHashMap<>();
+    /** Every class read to reach a verdict: the superclasses and the ancestors walked. */
+    private final Set<String> consulted =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    Verdict getVerdict(String superclassName, HierarchyIndex index, ClassLookup lookup) {
+        Verdict verdict = verdicts.get(superclassName);
+        if (verdict != null) {
+            hits.incrementAndGet();
+            return verdict;
+        }
+        misses.incrementAndGet();
+        verdict = resolve(superclassName, index, lookup);
+        Verdict existing = verdicts.putIfAbsent(superclassName, verdict);
+        return (existing != null) ? existing : verdict;
+    }
+
+    /** True if the superclass has a verdict, without counting as a hit or miss. */
+    boolean hasVerdict(String superclassName) {
+        return verdicts.containsKey(superclassName);
+    }
+
+    /**
+     * Forgets verdicts that may depend on the named classes. A verdict can depend on any ancestor
+     * of the superclass, so all are dropped if any of the classes was consulted; changes to
+     * classes that are nobody's superclass keep the cache intact.
+     */
+    void invalidate(Collection<String> classNames) {
+        for (String className : classNames) {
+            if (consulted.contains(className)) {
+                verdicts.clear();
+                consulted.clear();
+                return;
+            }
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SuperclassVerdictCache{types=" + verdicts.size() + ", hits=" + hits
+                + ", misses=" + misses + "}";
+    }
+
+    private Verdict resolve(String superclassName, HierarchyIndex index, ClassLookup lookup) {
+        try {
+            HierarchyIndex.ClassInfo superClass = getClassInfo(superclassName, index, lookup);
+            if (superClass.isAbstract()) {
+                return Verdict.ABSTRACT;
+            }
+            if (superClass.isEnum()) {
+                return Verdict.ENUM;
+            }
+            if (isThrowable(superClass, index, lookup)) {
+                return Verdict.THROWABLE;
+            }
+            if (superClass.hasProtectedConstructor()) {
+                return Verdict.PROTECTED_CONSTRUCTOR;
+            }
+            return Verdict.CONCRETE;
+        } catch (ClassNotFoundException e) {
+            return Verdict.UNRESOLVABLE;
+        }
+    }
+
+    private boolean isThrowable(
+            HierarchyIndex.ClassInfo cls, HierarchyIndex index, ClassLookup lookup)
+            throws ClassNotFoundException {
+        while (!THROWABLE.equals(cls.getClassName())) {
+            String superclassName = cls.getSuperclassName();
+            if (superclassName == null || OBJECT.equals(superclassName)) {
+                return false;
+            }
+            cls = getClassInfo(superclassName, index, lookup);
+        }
+        return true;
+    }
+
+    private HierarchyIndex.ClassInfo getClassInfo(
+            String className, HierarchyIndex index, ClassLookup lookup)
+            throws ClassNotFoundException {
+        consulted.add(className);
+        return index.getClassInfo(className, lookup);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * The access flags and superclass of every class in a dependency jar, taken once and cached on
+ * disk under the jar's SHA-256, so later runs answer questions about library types with a binary
+ * search instead of reading and parsing their class files. Flags include
+ * {@link ClassMetadataStore#PROTECTED_CONSTRUCTOR}. Every class is listed, not just the final,
+ * abstract and enum ones, so a type missing from the census is known not to be in the jar.
+ * Instances are immutable and safe to share between threads.
+ */
+final class TypeCensus {
+
+    private static final int MAGIC = 0x50544154;  // "PTAT"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".census";
+
+    private final Path jar;
+    /** Dotted class names, sorted. */
+    private final String[] names;
+    private final int[] flags;
+    /** Dotted superclass names, or null for java.lang.Object. */
+    private final String[] superclasses;
+
+    private TypeCensus(Path jar, String[] names, int[] flags, String[] superclasses) {
+        this.jar = jar;
+        this.names = names;
+        this.flags = flags;
+        this.superclasses = superclasses;
+    }
+
+    /**
+     * The censuses of the jars in a classpath, in classpath order, taking any not already in
+     * {@code cacheDirectory}. Directories are skipped, as their contents change between runs.
+     */
+    static ImmutableList<TypeCensus> forJars(Iterable<File> classpath, File cacheDirectory)
+            throws IOException {
+        ImmutableList.Builder<TypeCensus> censuses = ImmutableList.builder();
+        for (File entry : classpath) {
+            if (entry.isFile()) {
+                censuses.add(forJar(entry, cacheDirectory));
+            }
+        }
+        return censuses.build();
+    }
+
+    /** The census of a jar, from {@code cacheDirectory} if it has been taken before. */
+    static TypeCensus forJar(File jar, File cacheDirectory) throws IOException {
+        File cached = new File(cacheDirectory, sha256(jar) + SUFFIX);
+        if (cached.isFile()) {
+            try {
+                return load(cached, pathOf(jar));
+            } catch (IOException e) {
+                // Truncated or from another version; take the census again.
+            }
+        }
+        TypeCensus census = take(jar);
+        census.save(cached);
+        return census;
+    }
+
+    /**
+     * Reads the header of every class in a jar. Only the facts kept are held on to, not the
+     * headers or their class files.
+     */
+    static TypeCensus take(File jar) throws IOException {
+        Map<String, Integer> flagsByName = new TreeMap<>();
+        Map<String, String> superclassesByName = new HashMap<>();
+        Map<String, String> interned = new HashMap<>();
+        try (JarFile jarFile = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                // Versioned entries and module descriptors are not classes on the classpath.
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")
+                        || entry.getName().startsWith("META-INF/")
+                        || entry.getName().endsWith("module-info.class")) {
+                    continue;
+                }
+                try (InputStream in = jarFile.getInputStream(entry)) {
+                    ClassHeader header =
+                            ClassHeader.parse(ByteBuffer.wrap(ByteStreams.toByteArray(in)));
+                    flagsByName.put(header.getClassName(), header.getAccessFlags()
+                            | (header.hasProtectedConstructor()
+                                    ? ClassMetadataStore.PROTECTED_CONSTRUCTOR : 0));
+                    superclassesByName.put(header.getClassName(),
+                            intern(header.getSuperclassName(), interned));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Bad class file " + entry.getName() + " in " + jar, e);
+                }
+            }
+        }
+        String[] names = flagsByName.keySet().toArray(new String[flagsByName.size()]);
+        int[] flags = new int[names.length];
+        String[] superclasses = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            flags[i] = flagsByName.get(names[i]);
+            superclasses[i] = superclassesByName.get(names[i]);
+        }
+        return new TypeCensus(pathOf(jar), names, flags, superclasses);
+    }
+
+    /** The path a jar's census is identified by, however the jar was named. */
+    static Path pathOf(File jar) {
+        return Paths.get(jar.toURI()).normalize();
+    }
+
+    /** The jar this is a census of. */
+    Path getJar() {
+        return jar;
+    }
+
+    /** The position of a class in the census, or -1 if it is not in the jar. */
+    int indexOf(String className) {
+        int index = Arrays.binarySearch(names, className);
+        return (index < 0) ? -1 : index;
+    }
+
+    int getFlags(int index) {
+        return flags[index];
+    }
+
+    String getSuperclassName(int index) {
+        return superclasses[index];
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    private static TypeCensus load(File file, Path jar) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a type census");
+            }
+            int count = in.readInt();
+            String[] names = new String[count];
+            int[] flags = new int[count];
+            String[] superclasses = new String[count];
+            Map<String, String> interned = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                names[i] = in.readUTF();
+                flags[i] = in.readInt();
+                String superclass = in.readUTF();
+                superclasses[i] = superclass.isEmpty() ? null : intern(superclass, interned);
+            }
+            return new TypeCensus(jar, names, flags, superclasses);
+        }
+    }
+
+    /** Writes the census, replacing the file atomically, as other builds may be reading it. */
+    private void save(File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(temp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(names.length);
+                for (int i = 0; i < names.length; i++) {
+                    out.writeUTF(names[i]);
+                    out.writeInt(flags[i]);
+                    out.writeUTF((superclasses[i] == null) ? "" : superclasses[i]);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static String sha256(File jar) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        try (InputStream in = new FileInputStream(jar)) {
+            ByteStreams.copy(in, Funnels.asOutputStream(hasher));
+        }
+        return hasher.hash().toString();
+    }
+
+    /** Shares one string between the many classes with the same superclass. */
+    private static String intern(String name, Map<String, String> interned) {
+        if (name == null) {
+            return null;
+        }
+        String existing = interned.get(name);
+        if (existing == null) {
+            interned.put(name, name);
+            return name;
+        }
+        return existing;
+    }
+
+    @Override
+    public String toString() {
+        return "TypeCensus{jar=" + jar + ", types=" + names.length + "}";
+    }
+}
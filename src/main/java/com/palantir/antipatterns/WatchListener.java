@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives up-to-date findings from {@link AntipatternScanner#watch} each time classes are
+ * recompiled.
+ */
+public interface WatchListener {
+
+    /**
+     * Called with the current findings of each class that has changed, in place of any reported
+     * for it before: first for every class, then for each batch of class files written. Classes
+     * without findings, including deleted ones, map to empty lists.
+     */
+    void findingsChanged(Map<String, List<Finding>> findingsByClass) throws IOException;
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.palantir.antipatterns.ClassHeader.ACC_PUBLIC;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+public class ApiSurfaceTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void includesPublicClassesInExportedPackagesOnly() {
+        ApiSurface surface = ApiSurface.exporting(ImmutableList.of("com.foo", " com/bar ", ""));
+        assertThat(surface.isRestricted()).isTrue();
+        assertThat(surface.getPackages()).containsExactly("com.bar", "com.foo").inOrder();
+        assertThat(surface.includes(header("com.foo.Api", ACC_PUBLIC))).isTrue();
+        assertThat(surface.includes(header("com.foo.Hidden", 0))).isFalse();
+        assertThat(surface.includes(header("com.foo.internal.Impl", ACC_PUBLIC))).isFalse();
+        assertThat(surface.includes(header("com.foobar.Api", ACC_PUBLIC))).isFalse();
+        assertThat(surface.includes(header("Api", ACC_PUBLIC))).isFalse();
+        assertThat(surface.toString()).isEqualTo("exports com.bar,com.foo");
+    }
+
+    @Test
+    public void allIncludesEveryClass() {
+        assertThat(ApiSurface.ALL.isRestricted()).isFalse();
+        assertThat(ApiSurface.ALL.includes(header("com.foo.Hidden", 0))).isTrue();
+        ApiSurface surface = ApiSurface.exporting(ImmutableList.of("com.foo"));
+        assertThat(surface.union(ApiSurface.ALL)).isSameAs(ApiSurface.ALL);
+        assertThat(surface.union(ApiSurface.exporting(ImmutableList.of("com.bar"))).getPackages())
+                .containsExactly("com.bar", "com.foo");
+    }
+
+    @Test
+    public void readsExportsFromDirectory() throws IOException {
+        File directory = folder.newFolder();
+        Set<String> packages = new TreeSet<>();
+        assertThat(ApiSurface.readModuleExports(directory, packages)).isFalse();
+
+        Files.write(moduleInfo("com.foo"), new File(directory, "module-info.class"));
+        assertThat(ApiSurface.readModuleExports(directory, packages)).isTrue();
+        assertThat(packages).containsExactly("com.foo");
+    }
+
+    @Test
+    public void readsExportsFromClassFile() throws IOException {
+        File moduleInfo = folder.newFile("module-info.class");
+        Files.write(moduleInfo("com.foo"), moduleInfo);
+        Set<String> packages = new TreeSet<>();
+        assertThat(ApiSurface.readModuleExports(moduleInfo, packages)).isTrue();
+        assertThat(packages).containsExactly("com.foo");
+    }
+
+    @Test
+    public void readsExportsFromEveryDescriptorInJar() throws IOException {
+        File jar = folder.newFile("input.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("com/foo/Api.class"));
+            out.write(new ClassFileBuilder("com.foo.Api").build());
+            out.putNextEntry(new JarEntry("module-info.class"));
+            out.write(moduleInfo("com.foo"));
+            out.putNextEntry(new JarEntry("META-INF/versions/11/module-info.class"));
+            out.write(moduleInfo("com.foo", "com.foo.java11"));
+        }
+        Set<String> packages = new TreeSet<>();
+        assertThat(ApiSurface.readModuleExports(jar, packages)).isTrue();
+        assertThat(packages).containsExactly("com.foo", "com.foo.java11");
+    }
+
+    @Test
+    public void jarWithoutDescriptorHasNoExports() throws IOException {
+        File jar = folder.newFile("input.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("com/foo/Api.class"));
+            out.write(new ClassFileBuilder("com.foo.Api").build());
+        }
+        Set<String> packages = new TreeSet<>();
+        assertThat(ApiSurface.readModuleExports(jar, packages)).isFalse();
+        assertThat(packages).isEmpty();
+    }
+
+    private static byte[] moduleInfo(String... exports) {
+        return ClassHeaderTest.moduleInfo("com.foo", ImmutableList.copyOf(exports),
+                ImmutableList.of("com.foo.internal"));
+    }
+
+    private static ClassHeader header(String className, int accessFlags) {
+        return ClassHeaderTest.parse(
+                new ClassFileBuilder(className).accessFlags(accessFlags).build());
+    }
+}
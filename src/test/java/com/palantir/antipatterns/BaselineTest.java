@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.palantir.antipatterns.ClassHeader.ACC_FINAL;
+import static com.palantir.antipatterns.ClassHeader.ACC_PUBLIC;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+public class BaselineTest {
+
+    private static final Finding PARAM = Finding.finalTypeParam(
+            "com.example.Foo", "set", "(Lcom/example/Bar;)V", 0, "com.example.Bar");
+    private static final Finding SUPERCLASS =
+            Finding.extendsConcreteType("com.example.Foo", "com.example.Base");
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsFingerprints() throws IOException {
+        File file = folder.newFile();
+        Baseline.Recorder recorder = new Baseline.Recorder();
+        recorder.record(Baseline.fingerprint(PARAM));
+        recorder.record(Baseline.fingerprint(PARAM));
+        recorder.record(0);
+        recorder.save(file);
+
+        Baseline baseline = Baseline.load(file);
+        assertThat(baseline.size()).isEqualTo(2);
+        assertThat(baseline.contains(Baseline.fingerprint(PARAM))).isTrue();
+        assertThat(baseline.contains(0)).isTrue();
+        assertThat(baseline.contains(Baseline.fingerprint(SUPERCLASS))).isFalse();
+    }
+
+    @Test
+    public void fingerprintIgnoresOffendingType() {
+        Finding renamed = Finding.finalTypeParam(
+                "com.example.Foo", "set", "(Lcom/example/Bar;)V", 0, "com.example.Baz");
+        Finding otherParameter = Finding.finalTypeParam(
+                "com.example.Foo", "set", "(Lcom/example/Bar;)V", 1, "com.example.Bar");
+        Finding otherMethod = Finding.finalTypeParam(
+                "com.example.Foo", "put", "(Lcom/example/Bar;)V", 0, "com.example.Bar");
+        assertThat(Baseline.fingerprint(renamed)).isEqualTo(Baseline.fingerprint(PARAM));
+        assertThat(Baseline.fingerprint(otherParameter)).isNotEqualTo(Baseline.fingerprint(PARAM));
+        assertThat(Baseline.fingerprint(otherMethod)).isNotEqualTo(Baseline.fingerprint(PARAM));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherVersions() throws IOException {
+        File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x50544142);
+            out.writeInt(2);
+            out.writeInt(0);
+        }
+        Baseline.load(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = folder.newFile();
+        Files.write(new ClassFileBuilder("com.example.Foo").build(), file);
+        Baseline.load(file);
+    }
+
+    @Test
+    public void suppressesBaselinedFindingsButRecordsThem() throws IOException {
+        File classes = folder.newFolder();
+        new ClassFileBuilder("lib.Base").addMethod(ACC_PUBLIC, "<init>", "()V").writeTo(classes);
+        new ClassFileBuilder("lib.Value").accessFlags(ACC_PUBLIC | ACC_FINAL).writeTo(classes);
+        new ClassFileBuilder("app.Sub")
+                .superclass("lib.Base")
+                .addMethod(ACC_PUBLIC, "set", "(Llib/Value;)V")
+                .writeTo(classes);
+        File recorded = folder.newFile();
+        List<Finding> findings = AntipatternScanner.builder()
+                .recordBaseline(recorded)
+                .build()
+                .scan(ImmutableList.of(classes));
+        assertThat(findings).hasSize(2);
+
+        new ClassFileBuilder("app.Other")
+                .addMethod(ACC_PUBLIC, "get", "()Llib/Value;")
+                .writeTo(classes);
+        File rerecorded = folder.newFile();
+        List<Finding> newFindings = AntipatternScanner.builder()
+                .baseline(recorded)
+                .recordBaseline(rerecorded)
+                .build()
+                .scan(ImmutableList.of(classes));
+        assertThat(newFindings).containsExactly(
+                Finding.finalTypeReturn("app.Other", "get", "()Llib/Value;", "lib.Value"));
+        assertThat(Baseline.load(rerecorded).size()).isEqualTo(3);
+        for (Finding finding : findings) {
+            assertThat(Baseline.load(rerecorded).contains(Baseline.fingerprint(finding))).isTrue();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Writes class files byte by byte, so tests can put any constant or attribute into them without
+ * needing a compiler that emits it.
+ */
+final class ClassFileBuilder {
+
+    static final int ACC_SUPER = 0x0020;
+    static final int ACC_PRIVATE = 0x0002;
+
+    static final int CONSTANT_UTF8 = 1;
+    static final int CONSTANT_INTEGER = 3;
+    static final int CONSTANT_FLOAT = 4;
+    static final int CONSTANT_LONG = 5;
+    static final int CONSTANT_DOUBLE = 6;
+    static final int CONSTANT_CLASS = 7;
+    static final int CONSTANT_STRING = 8;
+    static final int CONSTANT_FIELDREF = 9;
+    static final int CONSTANT_METHODREF = 10;
+    static final int CONSTANT_INTERFACE_METHODREF = 11;
+    static final int CONSTANT_NAME_AND_TYPE = 12;
+    static final int CONSTANT_METHOD_HANDLE = 15;
+    static final int CONSTANT_METHOD_TYPE = 16;
+    static final int CONSTANT_DYNAMIC = 17;
+    static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    static final int CONSTANT_MODULE = 19;
+    static final int CONSTANT_PACKAGE = 20;
+
+    private final String className;
+    private final ByteArrayDataOutput constants = ByteStreams.newDataOutput();
+    private final Map<String, Integer> utf8Indexes = new HashMap<>();
+    private int constantCount = 1;
+    private int accessFlags = ClassHeader.ACC_PUBLIC | ACC_SUPER;
+    private String superclassName = "java.lang.Object";
+    private final ByteArrayDataOutput interfaces = ByteStreams.newDataOutput();
+    private int interfaceCount;
+    private final ByteArrayDataOutput fields = ByteStreams.newDataOutput();
+    private int fieldCount;
+    private final ByteArrayDataOutput methods = ByteStreams.newDataOutput();
+    private int methodCount;
+    private final ByteArrayDataOutput attributes = ByteStreams.newDataOutput();
+    private int attributeCount;
+
+    /** @param className the dotted name of the class */
+    ClassFileBuilder(String className) {
+        this.className = className;
+    }
+
+    ClassFileBuilder accessFlags(int flags) {
+        this.accessFlags = flags;
+        return this;
+    }
+
+    /** @param name the dotted name of the superclass, or null for none, as in java.lang.Object */
+    ClassFileBuilder superclass(String name) {
+        this.superclassName = name;
+        return this;
+    }
+
+    ClassFileBuilder addInterface(String name) {
+        interfaces.writeShort(classConstant(name));
+        interfaceCount++;
+        return this;
+    }
+
+    /** Adds a field with a ConstantValue attribute, which readers must skip over. */
+    ClassFileBuilder addField(int flags, String name, String descriptor) {
+        fields.writeShort(flags);
+        fields.writeShort(utf8(name));
+        fields.writeShort(utf8(descriptor));
+        fields.writeShort(1);
+        fields.writeShort(utf8("ConstantValue"));
+        fields.writeInt(2);
+        fields.writeShort(constant(CONSTANT_INTEGER, new byte[] {0, 0, 0, 42}));
+        fieldCount++;
+        return this;
+    }
+
+    /** Adds a method with a stub Code attribute, which readers must skip over. */
+    ClassFileBuilder addMethod(int flags, String name, String descriptor) {
+        methods.writeShort(flags);
+        methods.writeShort(utf8(name));
+        methods.writeShort(utf8(descriptor));
+        methods.writeShort(1);
+        methods.writeShort(utf8("Code"));
+        byte[] code = {0, 1, 0, 1, 0, 0, 0, 1, (byte) 0xB1, 0, 0, 0, 0};
+        methods.writeInt(code.length);
+        methods.write(code);
+        methodCount++;
+        return this;
+    }
+
+    ClassFileBuilder addSyntheticAttribute() {
+        attributes.writeShort(utf8("Synthetic"));
+        attributes.writeInt(0);
+        attributeCount++;
+        return this;
+    }
+
+    ClassFileBuilder addSourceFileAttribute(String sourceFile) {
+        attributes.writeShort(utf8("SourceFile"));
+        attributes.writeInt(2);
+        attributes.writeShort(utf8(sourceFile));
+        attributeCount++;
+        return this;
+    }
+
+    /**
+     * Adds a Module attribute requiring java.base and exporting {@code exports} to every module
+     * and {@code qualifiedExports} to a module named friend only.
+     */
+    ClassFileBuilder addModuleAttribute(
+            String moduleName, List<String> exports, List<String> qualifiedExports) {
+        ByteArrayDataOutput module = ByteStreams.newDataOutput();
+        module.writeShort(nameConstant(CONSTANT_MODULE, moduleName));
+        module.writeShort(0);
+        module.writeShort(0);
+        module.writeShort(1);
+        module.writeShort(nameConstant(CONSTANT_MODULE, "java.base"));
+        module.writeShort(0x8000);
+        module.writeShort(0);
+        module.writeShort(exports.size() + qualifiedExports.size());
+        for (String packageName : exports) {
+            module.writeShort(nameConstant(CONSTANT_PACKAGE, packageName.replace('.', '/')));
+            module.writeShort(0);
+            module.writeShort(0);
+        }
+        for (String packageName : qualifiedExports) {
+            module.writeShort(nameConstant(CONSTANT_PACKAGE, packageName.replace('.', '/')));
+            module.writeShort(0);
+            module.writeShort(1);
+            module.writeShort(nameConstant(CONSTANT_MODULE, "friend"));
+        }
+        module.writeShort(0);
+        module.writeShort(0);
+        module.writeShort(0);
+        byte[] contents = module.toByteArray();
+        attributes.writeShort(utf8("Module"));
+        attributes.writeInt(contents.length);
+        attributes.write(contents);
+        attributeCount++;
+        return this;
+    }
+
+    /**
+     * Appends a raw constant pool entry, returning its index. Long and double constants take up
+     * two indexes, as in the JVM.
+     */
+    int constant(int tag, byte[] contents) {
+        constants.writeByte(tag);
+        constants.write(contents);
+        int index = constantCount;
+        constantCount += (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) ? 2 : 1;
+        return index;
+    }
+
+    int utf8(String value) {
+        Integer index = utf8Indexes.get(value);
+        if (index == null) {
+            ByteArrayDataOutput contents = ByteStreams.newDataOutput();
+            contents.writeUTF(value);
+            index = constant(CONSTANT_UTF8, contents.toByteArray());
+            utf8Indexes.put(value, index);
+        }
+        return index;
+    }
+
+    int classConstant(String dottedName) {
+        return nameConstant(CONSTANT_CLASS, dottedName.replace('.', '/'));
+    }
+
+    byte[] build() {
+        int thisClass = classConstant(className);
+        int superClass = (superclassName == null) ? 0 : classConstant(superclassName);
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(53);
+        out.writeShort(constantCount);
+        out.write(constants.toByteArray());
+        out.writeShort(accessFlags);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(interfaceCount);
+        out.write(interfaces.toByteArray());
+        out.writeShort(fieldCount);
+        out.write(fields.toByteArray());
+        out.writeShort(methodCount);
+        out.write(methods.toByteArray());
+        out.writeShort(attributeCount);
+        out.write(attributes.toByteArray());
+        return out.toByteArray();
+    }
+
+    /** Writes the class file under {@code root}, in its package's directory. */
+    File writeTo(File root) throws IOException {
+        File file = new File(root, className.replace('.', File.separatorChar) + ".class");
+        Files.createParentDirs(file);
+        Files.write(build(), file);
+        return file;
+    }
+
+    private int nameConstant(int tag, String name) {
+        int nameIndex = utf8(name);
+        return constant(tag, new byte[] {(byte) (nameIndex >> 8), (byte) nameIndex});
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+public class ClassFileSetTest {
+
+    private static final byte[] MODULE_INFO = ClassHeaderTest.moduleInfo(
+            "com.example", ImmutableList.of("a"), ImmutableList.<String>of());
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void skipsModuleDescriptorsAndVersionedClasses() {
+        assertThat(ClassFileSet.isAnalyzed("a/A.class")).isTrue();
+        assertThat(ClassFileSet.isAnalyzed("A.class")).isTrue();
+        assertThat(ClassFileSet.isAnalyzed("module-info.class")).isFalse();
+        assertThat(ClassFileSet.isAnalyzed("a/module-info.class")).isFalse();
+        assertThat(ClassFileSet.isAnalyzed("META-INF/versions/9/a/A.class")).isFalse();
+        assertThat(ClassFileSet.isAnalyzed("META-INF/versions/9/module-info.class")).isFalse();
+        assertThat(ClassFileSet.isAnalyzed("a/my-module-info.class")).isTrue();
+        assertThat(ClassFileSet.isAnalyzed("a/A.java")).isFalse();
+    }
+
+    @Test
+    public void listsDirectoryClassesInOrder() throws IOException {
+        File directory = folder.newFolder();
+        new ClassFileBuilder("b.B").writeTo(directory);
+        new ClassFileBuilder("a.A").writeTo(directory);
+        new ClassFileBuilder("a.A$Inner").writeTo(directory);
+        Files.write(MODULE_INFO, new File(directory, "module-info.class"));
+        Files.write("not a class", new File(directory, "a/README.txt"), StandardCharsets.UTF_8);
+        File versioned = new File(directory, "META-INF/versions/9");
+        new ClassFileBuilder("a.A").writeTo(versioned);
+
+        assertThat(classNames(ImmutableList.of(directory)))
+                .containsExactly("a.A$Inner", "a.A", "b.B").inOrder();
+    }
+
+    @Test
+    public void listsJarClasses() throws IOException {
+        File jar = writeJar(ImmutableMap.of(
+                "a/", new byte[0],
+                "a/A.class", new ClassFileBuilder("a.A").build(),
+                "module-info.class", MODULE_INFO,
+                "META-INF/versions/11/a/A.class", new ClassFileBuilder("a.A").build(),
+                "META-INF/versions/11/module-info.class", MODULE_INFO));
+        assertThat(classNames(ImmutableList.of(jar))).containsExactly("a.A");
+    }
+
+    @Test
+    public void acceptsClassFilesDirectly() throws IOException {
+        File classFile = new ClassFileBuilder("a.A").writeTo(folder.getRoot());
+        File moduleInfo = new File(folder.getRoot(), "module-info.class");
+        Files.write(MODULE_INFO, moduleInfo);
+        assertThat(classNames(ImmutableList.of(moduleInfo, classFile))).containsExactly("a.A");
+    }
+
+    @Test
+    public void relativePathsUseSlashes() {
+        File root = folder.getRoot();
+        assertThat(ClassFileSet.relativePath(root.toPath(),
+                new File(root, "META-INF/versions/9/a/A.class").toPath()))
+                .isEqualTo("META-INF/versions/9/a/A.class");
+    }
+
+    private static List<String> classNames(List<File> inputs) throws IOException {
+        List<String> classNames = new ArrayList<>();
+        try (ClassFileSet classFiles = ClassFileSet.open(inputs)) {
+            for (ClassFileSet.ClassFile classFile : classFiles.getClassFiles()) {
+                classNames.add(ClassHeader.parse(classFile.read()).getClassName());
+            }
+        }
+        return classNames;
+    }
+
+    private File writeJar(Map<String, byte[]> entries) throws IOException {
+        File jar = folder.newFile("input.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+}
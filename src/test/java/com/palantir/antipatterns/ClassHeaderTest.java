@@ -0,0 +1,365 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.palantir.antipatterns.ClassFileBuilder.ACC_PRIVATE;
+import static com.palantir.antipatterns.ClassHeader.ACC_ABSTRACT;
+import static com.palantir.antipatterns.ClassHeader.ACC_FINAL;
+import static com.palantir.antipatterns.ClassHeader.ACC_INTERFACE;
+import static com.palantir.antipatterns.ClassHeader.ACC_MODULE;
+import static com.palantir.antipatterns.ClassHeader.ACC_PROTECTED;
+import static com.palantir.antipatterns.ClassHeader.ACC_PUBLIC;
+import static com.palantir.antipatterns.ClassHeader.ACC_SYNTHETIC;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ClassHeaderTest {
+
+    @Test
+    public void parsesClassAndSuperclassNames() {
+        ClassHeader header = parse(new ClassFileBuilder("com.example.Foo")
+                .superclass("com.example.Base")
+                .addInterface("java.io.Serializable")
+                .build());
+        assertThat(header.getClassName()).isEqualTo("com.example.Foo");
+        assertThat(header.getSuperclassName()).isEqualTo("com.example.Base");
+        assertThat(header.isPublic()).isTrue();
+        assertThat(header.isFinal()).isFalse();
+    }
+
+    @Test
+    public void javaLangObjectHasNoSuperclass() {
+        ClassHeader header = parse(
+                new ClassFileBuilder("java.lang.Object").superclass(null).build());
+        assertThat(header.getSuperclassName()).isNull();
+    }
+
+    @Test
+    public void decodesAccessFlags() {
+        ClassHeader header = parse(new ClassFileBuilder("com.example.Api")
+                .accessFlags(ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT)
+                .build());
+        assertThat(header.isInterface()).isTrue();
+        assertThat(header.isAbstract()).isTrue();
+        assertThat(header.isEnum()).isFalse();
+        assertThat(header.isModule()).isFalse();
+        assertThat(header.getAccessFlags()).isEqualTo(ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT);
+    }
+
+    @Test
+    public void skipsEveryKindOfConstant() {
+        ClassHeader header = parse(withEveryKindOfConstant("com.example.Constants")
+                .superclass("com.example.Base")
+                .addMethod(ACC_PUBLIC, "run", "()V")
+                .build());
+        assertThat(header.getClassName()).isEqualTo("com.example.Constants");
+        assertThat(header.getSuperclassName()).isEqualTo("com.example.Base");
+        assertThat(header.getMethodCount()).isEqualTo(1);
+        assertThat(header.getMethodName(0)).isEqualTo("run");
+        assertThat(header.getMethodDescriptor(0)).isEqualTo("()V");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownConstantTag() {
+        ClassFileBuilder builder = new ClassFileBuilder("com.example.Bad");
+        builder.constant(2, new byte[] {0, 0});
+        parse(builder.build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonClassFiles() {
+        parse(new byte[] {'P', 'K', 3, 4, 0, 0, 0, 0, 0, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedClassFiles() {
+        byte[] classFile = new ClassFileBuilder("com.example.Foo").build();
+        parse(Arrays.copyOf(classFile, 20));
+    }
+
+    @Test
+    public void rejectsTruncatedMethodTableWhenMethodsAreRead() {
+        byte[] classFile = new ClassFileBuilder("com.example.Foo")
+                .addMethod(ACC_PUBLIC, "<init>", "()V")
+                .addMethod(ACC_PUBLIC, "get", "()Ljava/lang/String;")
+                .build();
+        // Cuts the second method off in its Code attribute, well past the header.
+        byte[] truncated = Arrays.copyOf(classFile, classFile.length - 22);
+        assertThat(parse(truncated).getClassName()).isEqualTo("com.example.Foo");
+        try {
+            parse(truncated).getMethodCount();
+            throw new AssertionError("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("Truncated class file");
+        }
+        try {
+            parse(truncated).hasProtectedConstructor();
+            throw new AssertionError("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getCause()).isInstanceOf(IndexOutOfBoundsException.class);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedClassAttribute() {
+        byte[] classFile = new ClassFileBuilder("com.example.Foo")
+                .addSourceFileAttribute("Foo.java")
+                .build();
+        parse(Arrays.copyOf(classFile, classFile.length - 1)).isSynthetic();
+    }
+
+    @Test
+    public void readsAccessFlagsPastEveryKindOfConstant() throws IOException {
+        byte[] classFile = withEveryKindOfConstant("com.example.Constants")
+                .accessFlags(ACC_PUBLIC | ACC_FINAL)
+                .build();
+        assertThat(ClassHeader.readAccessFlags(new ByteArrayInputStream(classFile)))
+                .isEqualTo(ACC_PUBLIC | ACC_FINAL);
+    }
+
+    @Test(expected = IOException.class)
+    public void readAccessFlagsRejectsUnknownConstantTag() throws IOException {
+        ClassFileBuilder builder = new ClassFileBuilder("com.example.Bad");
+        builder.constant(2, new byte[] {0, 0});
+        ClassHeader.readAccessFlags(new ByteArrayInputStream(builder.build()));
+    }
+
+    @Test(expected = IOException.class)
+    public void readAccessFlagsRejectsTruncatedClassFiles() throws IOException {
+        byte[] classFile = new ClassFileBuilder("com.example.Foo").build();
+        ClassHeader.readAccessFlags(new ByteArrayInputStream(Arrays.copyOf(classFile, 20)));
+    }
+
+    @Test
+    public void parsesFromBufferPosition() {
+        byte[] classFile = new ClassFileBuilder("com.example.Foo").build();
+        byte[] padded = new byte[classFile.length + 3];
+        System.arraycopy(classFile, 0, padded, 3, classFile.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded);
+        buffer.position(3);
+        assertThat(ClassHeader.parse(buffer).getClassName()).isEqualTo("com.example.Foo");
+        assertThat(buffer.position()).isEqualTo(3);
+    }
+
+    @Test
+    public void readsMethodsPastFields() {
+        ClassHeader header = parse(new ClassFileBuilder("com.example.Foo")
+                .addField(ACC_PRIVATE | ACC_FINAL, "count", "I")
+                .addField(ACC_PUBLIC, "name", "Ljava/lang/String;")
+                .addMethod(ACC_PROTECTED, "<init>", "()V")
+                .addMethod(ACC_PUBLIC, "get", "(Ljava/lang/String;[I)Lcom/example/Bar;")
+                .addMethod(ACC_PRIVATE, "helper", "()V")
+                .addSourceFileAttribute("Foo.java")
+                .build());
+        assertThat(header.getMethodCount()).isEqualTo(3);
+        assertThat(header.isConstructor(0)).isTrue();
+        assertThat(header.isMethodProtected(0)).isTrue();
+        assertThat(header.hasProtectedConstructor()).isTrue();
+        assertThat(header.getMethodName(1)).isEqualTo("get");
+        assertThat(header.isMethodPublic(1)).isTrue();
+        assertThat(header.getMethodDescriptor(1))
+                .isEqualTo("(Ljava/lang/String;[I)Lcom/example/Bar;");
+        assertThat(header.getMethodDescriptorView(1).toString())
+                .isEqualTo("(Ljava/lang/String;[I)Lcom/example/Bar;");
+        assertThat(header.getMethodAccessFlags(2)).isEqualTo(ACC_PRIVATE);
+        assertThat(header.isSynthetic()).isFalse();
+    }
+
+    @Test
+    public void publicConstructorIsNotProtected() {
+        ClassHeader header = parse(new ClassFileBuilder("com.example.Foo")
+                .addMethod(ACC_PUBLIC, "<init>", "()V")
+                .addMethod(ACC_PROTECTED, "init", "()V")
+                .build());
+        assertThat(header.hasProtectedConstructor()).isFalse();
+    }
+
+    @Test
+    public void decodesModifiedUtf8() {
+        ClassHeader header = parse(new ClassFileBuilder("com.example.Caf\u00e9")
+                .addMethod(ACC_PUBLIC, "price", "()Lcom/example/\u20acuro;")
+                .addMethod(ACC_PUBLIC, "nul\u0000", "()V")
+                .build());
+        assertThat(header.getClassName()).isEqualTo("com.example.Caf\u00e9");
+        assertThat(header.getMethodDescriptor(0)).isEqualTo("()Lcom/example/\u20acuro;");
+        assertThat(header.getMethodDescriptorView(0).toString())
+                .isEqualTo("()Lcom/example/\u20acuro;");
+        assertThat(header.getMethodName(1)).isEqualTo("nul\u0000");
+    }
+
+    @Test
+    public void descriptorViewIsReused() {
+        ClassHeader header = parse(new ClassFileBuilder("com.example.Foo")
+                .addMethod(ACC_PUBLIC, "a", "(I)V")
+                .addMethod(ACC_PUBLIC, "b", "(J)V")
+                .build());
+        CharSequence first = header.getMethodDescriptorView(0);
+        assertThat(first.length()).isEqualTo(4);
+        assertThat(first.charAt(1)).isEqualTo('I');
+        assertThat(first.subSequence(1, 2).toString()).isEqualTo("I");
+        CharSequence second = header.getMethodDescriptorView(1);
+        assertThat(second).isSameAs(first);
+        assertThat(second.toString()).isEqualTo("(J)V");
+    }
+
+    @Test
+    public void detectsSyntheticClasses() {
+        assertThat(parse(new ClassFileBuilder("com.example.Foo$1")
+                .addSyntheticAttribute()
+                .build()).isSynthetic()).isTrue();
+        assertThat(parse(new ClassFileBuilder("com.example.Foo$2")
+                .accessFlags(ACC_SYNTHETIC)
+                .build()).isSynthetic()).isTrue();
+    }
+
+    @Test
+    public void readsUnqualifiedModuleExports() {
+        ClassHeader header = parse(moduleInfo("com.example",
+                Arrays.asList("com.example.api", "com.example.spi"),
+                Arrays.asList("com.example.internal")));
+        assertThat(header.isModule()).isTrue();
+        assertThat(header.getClassName()).isEqualTo("module-info");
+        assertThat(header.getExportedPackages())
+                .containsExactly("com.example.api", "com.example.spi").inOrder();
+    }
+
+    @Test
+    public void moduleWithoutExportsExportsNothing() {
+        ClassHeader header = parse(moduleInfo("com.example",
+                Collections.<String>emptyList(), Arrays.asList("com.example.internal")));
+        assertThat(header.isModule()).isTrue();
+        assertThat(header.getExportedPackages()).isEmpty();
+    }
+
+    @Test
+    public void ordinaryClassesExportNothing() {
+        ClassHeader header = parse(new ClassFileBuilder("com.example.Foo")
+                .addMethod(ACC_PUBLIC, "<init>", "()V")
+                .build());
+        assertThat(header.isModule()).isFalse();
+        assertThat(header.getExportedPackages()).isEmpty();
+    }
+
+    @Test
+    public void skeletonKeepsPublicAndProtectedSignatures() {
+        byte[] classFile = withEveryKindOfConstant("com.example.Caf\u00e9")
+                .accessFlags(ACC_PUBLIC | ACC_ABSTRACT)
+                .superclass("com.example.Base")
+                .addInterface("java.io.Serializable")
+                .addField(ACC_PUBLIC, "name", "Ljava/lang/String;")
+                .addMethod(ACC_PROTECTED, "<init>", "()V")
+                .addMethod(ACC_PUBLIC, "get", "()Lcom/example/\u20acuro;")
+                .addMethod(ACC_PRIVATE, "helper", "(Lcom/example/Bar;)V")
+                .addMethod(0, "internal", "(Lcom/example/Bar;)V")
+                .addMethod(ACC_PROTECTED | ACC_FINAL, "set", "(ILcom/example/Bar;)V")
+                .addSyntheticAttribute()
+                .build();
+        byte[] skeleton = parse(classFile).toSkeleton(true);
+        ClassHeader parsed = parse(skeleton);
+        assertThat(parsed.getClassName()).isEqualTo("com.example.Caf\u00e9");
+        assertThat(parsed.getSuperclassName()).isEqualTo("com.example.Base");
+        assertThat(parsed.getAccessFlags()).isEqualTo(ACC_PUBLIC | ACC_ABSTRACT);
+        assertThat(parsed.isSynthetic()).isTrue();
+        assertThat(parsed.hasProtectedConstructor()).isTrue();
+        assertThat(parsed.getMethodCount()).isEqualTo(3);
+        assertThat(parsed.getMethodName(1)).isEqualTo("get");
+        assertThat(parsed.getMethodDescriptor(1)).isEqualTo("()Lcom/example/\u20acuro;");
+        assertThat(parsed.getMethodName(2)).isEqualTo("set");
+        assertThat(parsed.getMethodAccessFlags(2)).isEqualTo(ACC_PROTECTED | ACC_FINAL);
+        assertThat(parsed.getMethodDescriptor(2)).isEqualTo("(ILcom/example/Bar;)V");
+        assertThat(parsed.toSkeleton(true)).isEqualTo(skeleton);
+        assertThat(skeleton.length).isLessThan(classFile.length);
+    }
+
+    @Test
+    public void hierarchySkeletonKeepsOnlyProtectedConstructors() {
+        ClassHeader header = parse(new ClassFileBuilder("com.example.Foo")
+                .addMethod(ACC_PUBLIC, "<init>", "()V")
+                .addMethod(ACC_PROTECTED, "<init>", "(I)V")
+                .addMethod(ACC_PUBLIC, "get", "()Lcom/example/Bar;")
+                .build());
+        ClassHeader parsed = parse(header.toSkeleton(false));
+        assertThat(parsed.getClassName()).isEqualTo("com.example.Foo");
+        assertThat(parsed.getSuperclassName()).isEqualTo("java.lang.Object");
+        assertThat(parsed.getMethodCount()).isEqualTo(1);
+        assertThat(parsed.getMethodDescriptor(0)).isEqualTo("(I)V");
+        assertThat(parsed.hasProtectedConstructor()).isTrue();
+        assertThat(parsed.isSynthetic()).isFalse();
+    }
+
+    @Test
+    public void skeletonOfRootClassHasNoSuperclass() {
+        ClassHeader header = parse(
+                new ClassFileBuilder("java.lang.Object").superclass(null).build());
+        assertThat(parse(header.toSkeleton(true)).getSuperclassName()).isNull();
+    }
+
+    /** A class with one constant of every kind ahead of its own names in the pool. */
+    private static ClassFileBuilder withEveryKindOfConstant(String className) {
+        ClassFileBuilder builder = new ClassFileBuilder(className);
+        int nameAndType = builder.constant(ClassFileBuilder.CONSTANT_NAME_AND_TYPE,
+                u2s(builder.utf8("value"), builder.utf8("I")));
+        int owner = builder.classConstant("com.example.Owner");
+        builder.constant(ClassFileBuilder.CONSTANT_INTEGER, new byte[] {0, 0, 0, 1});
+        builder.constant(ClassFileBuilder.CONSTANT_FLOAT, new byte[] {0x3F, (byte) 0x80, 0, 0});
+        builder.constant(ClassFileBuilder.CONSTANT_LONG, new byte[] {0, 0, 0, 0, 0, 0, 0, 2});
+        builder.constant(ClassFileBuilder.CONSTANT_DOUBLE, new byte[] {0x40, 0, 0, 0, 0, 0, 0, 0});
+        builder.constant(ClassFileBuilder.CONSTANT_STRING, u2s(builder.utf8("text")));
+        int fieldRef =
+                builder.constant(ClassFileBuilder.CONSTANT_FIELDREF, u2s(owner, nameAndType));
+        builder.constant(ClassFileBuilder.CONSTANT_METHODREF, u2s(owner, nameAndType));
+        builder.constant(ClassFileBuilder.CONSTANT_INTERFACE_METHODREF, u2s(owner, nameAndType));
+        builder.constant(ClassFileBuilder.CONSTANT_METHOD_HANDLE,
+                new byte[] {1, (byte) (fieldRef >> 8), (byte) fieldRef});
+        builder.constant(ClassFileBuilder.CONSTANT_METHOD_TYPE, u2s(builder.utf8("()V")));
+        builder.constant(ClassFileBuilder.CONSTANT_DYNAMIC, u2s(0, nameAndType));
+        builder.constant(ClassFileBuilder.CONSTANT_INVOKE_DYNAMIC, u2s(0, nameAndType));
+        builder.constant(ClassFileBuilder.CONSTANT_MODULE, u2s(builder.utf8("com.example")));
+        builder.constant(ClassFileBuilder.CONSTANT_PACKAGE, u2s(builder.utf8("com/example")));
+        return builder;
+    }
+
+    /** A module-info class, as javac writes it, with a SourceFile attribute before the Module. */
+    static byte[] moduleInfo(String moduleName, List<String> exports, List<String> qualified) {
+        return new ClassFileBuilder("module-info")
+                .accessFlags(ACC_MODULE)
+                .superclass(null)
+                .addSourceFileAttribute("module-info.java")
+                .addModuleAttribute(moduleName, exports, qualified)
+                .build();
+    }
+
+    static ClassHeader parse(byte[] classFile) {
+        return ClassHeader.parse(ByteBuffer.wrap(classFile));
+    }
+
+    private static byte[] u2s(int... values) {
+        byte[] bytes = new byte[2 * values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[2 * i] = (byte) (values[i] >> 8);
+            bytes[2 * i + 1] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
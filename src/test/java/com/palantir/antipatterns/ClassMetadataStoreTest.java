@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.palantir.antipatterns.ClassHeader.ACC_FINAL;
+import static com.palantir.antipatterns.ClassHeader.ACC_PUBLIC;
+import static com.palantir.antipatterns.ClassMetadataStore.NONE;
+import static com.palantir.antipatterns.ClassMetadataStore.PROTECTED_CONSTRUCTOR;
+
+import org.junit.Test;
+
+public class ClassMetadataStoreTest {
+
+    @Test
+    public void recordsFlagsAndSuperclass() {
+        ClassMetadataStore store = new ClassMetadataStore(false);
+        store.put("com.example.Foo", "com.example.Base", ACC_PUBLIC | PROTECTED_CONSTRUCTOR);
+        int id = store.find("com.example.Foo");
+        assertThat(id).isNotEqualTo(NONE);
+        assertThat(store.getName(id)).isEqualTo("com.example.Foo");
+        assertThat(store.getFlags(id)).isEqualTo(ACC_PUBLIC | PROTECTED_CONSTRUCTOR);
+        assertThat(store.getName(store.getSuperclass(id))).isEqualTo("com.example.Base");
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void superclassesAreNotFoundUntilRecorded() {
+        ClassMetadataStore store = new ClassMetadataStore(false);
+        store.put("com.example.Foo", "com.example.Base", ACC_PUBLIC);
+        assertThat(store.find("com.example.Base")).isEqualTo(NONE);
+        assertThat(store.find("com.example.Missing")).isEqualTo(NONE);
+
+        store.put("com.example.Base", null, ACC_PUBLIC);
+        int base = store.find("com.example.Base");
+        assertThat(base).isEqualTo(store.getSuperclass(store.find("com.example.Foo")));
+        assertThat(store.getSuperclass(base)).isEqualTo(NONE);
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void replacesFacts() {
+        ClassMetadataStore store = new ClassMetadataStore(false);
+        store.put("com.example.Foo", "com.example.Base", ACC_PUBLIC);
+        store.put("com.example.Foo", null, ACC_PUBLIC | ACC_FINAL);
+        int id = store.find("com.example.Foo");
+        assertThat(store.getFlags(id)).isEqualTo(ACC_PUBLIC | ACC_FINAL);
+        assertThat(store.getSuperclass(id)).isEqualTo(NONE);
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void storesNonAsciiNames() {
+        ClassMetadataStore store = new ClassMetadataStore(false);
+        store.put("com.example.Caf\u00e9", "com.example.\u20acuro", ACC_PUBLIC);
+        int id = store.find("com.example.Caf\u00e9");
+        assertThat(store.getName(id)).isEqualTo("com.example.Caf\u00e9");
+        assertThat(store.getName(store.getSuperclass(id))).isEqualTo("com.example.\u20acuro");
+        assertThat(store.find("com.example.Cafe")).isEqualTo(NONE);
+    }
+
+    @Test
+    public void growsOnHeap() {
+        checkGrowth(new ClassMetadataStore(false));
+    }
+
+    @Test
+    public void growsOffHeap() {
+        checkGrowth(new ClassMetadataStore(true));
+    }
+
+    /** Adds enough long names to grow the arrays, the name buffer and the table several times. */
+    private static void checkGrowth(ClassMetadataStore store) {
+        int count = 20000;
+        long initialBytes = store.getByteSize();
+        for (int i = 0; i < count; i++) {
+            store.put(name(i), (i == 0) ? null : name(i - 1), i);
+        }
+        assertThat(store.size()).isEqualTo(count);
+        assertThat(store.getByteSize()).isGreaterThan(initialBytes);
+        for (int i = 0; i < count; i++) {
+            int id = store.find(name(i));
+            assertThat(id).isNotEqualTo(NONE);
+            assertThat(store.getName(id)).isEqualTo(name(i));
+            assertThat(store.getFlags(id)).isEqualTo(i);
+            if (i > 0) {
+                assertThat(store.getName(store.getSuperclass(id))).isEqualTo(name(i - 1));
+            }
+        }
+        assertThat(store.find(name(count))).isEqualTo(NONE);
+    }
+
+    private static String name(int i) {
+        return "com.example.some.deeply.nested.pkg.GeneratedClassWithALongName" + i;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class DependencyIndexTest {
+
+    private static final String CONFIGURATION = "-java";
+    private static final String FOO = "classes/com/example/Foo.class";
+    private static final String QUX = "lib.jar!/com/example/Qux.class";
+    private static final Finding FINDING = Finding.finalTypeParam(
+            "com.example.Foo", "set", "(Lcom/example/Bar;)V", 0, "com.example.Bar");
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsDependents() {
+        DependencyIndex index = newIndex();
+        assertThat(index.getAffectedLocations(ImmutableList.of("com.example.Bar")))
+                .containsExactly(FOO);
+        assertThat(index.getAffectedLocations(ImmutableList.of("com.example.Base")))
+                .containsExactly(FOO, QUX);
+        assertThat(index.getAffectedLocations(ImmutableList.of("com.example.Qux")))
+                .containsExactly(QUX);
+        assertThat(index.getAffectedLocations(ImmutableList.of("com.example.Unused"))).isEmpty();
+    }
+
+    @Test
+    public void replacingEntryDropsOldDependencies() {
+        DependencyIndex index = newIndex();
+        index.put(FOO, new DependencyIndex.Entry("com.example.Foo",
+                ImmutableList.of("com.example.Other"), ImmutableList.<Finding>of()));
+        assertThat(index.getAffectedLocations(ImmutableList.of("com.example.Bar"))).isEmpty();
+        assertThat(index.getAffectedLocations(ImmutableList.of("com.example.Other")))
+                .containsExactly(FOO);
+        assertThat(index.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void retainsOnlyExistingLocations() {
+        DependencyIndex index = newIndex();
+        index.retain(ImmutableSet.of(QUX));
+        assertThat(index.get(FOO)).isNull();
+        assertThat(index.getAffectedLocations(ImmutableList.of("com.example.Base")))
+                .containsExactly(QUX);
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void roundTripsEntries() throws IOException {
+        File file = folder.newFile();
+        newIndex().save(file);
+
+        DependencyIndex loaded = DependencyIndex.load(file, CONFIGURATION);
+        assertThat(loaded.size()).isEqualTo(2);
+        DependencyIndex.Entry foo = loaded.get(FOO);
+        assertThat(foo.getClassName()).isEqualTo("com.example.Foo");
+        assertThat(foo.getDependencies())
+                .containsExactly("com.example.Bar", "com.example.Base").inOrder();
+        assertThat(foo.getFindings()).containsExactly(FINDING);
+        assertThat(loaded.getAffectedLocations(ImmutableList.of("com.example.Base")))
+                .containsExactly(FOO, QUX);
+    }
+
+    @Test
+    public void ignoresIndexFromAnotherConfiguration() throws IOException {
+        File file = folder.newFile();
+        newIndex().save(file);
+        assertThat(DependencyIndex.load(file, "-java api").size()).isEqualTo(0);
+    }
+
+    @Test
+    public void ignoresIndexFromAnotherVersion() throws IOException {
+        File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(0x50544144);
+            out.writeInt(2);
+            out.writeUTF(CONFIGURATION);
+            out.writeInt(1);
+            out.writeUTF(FOO);
+            out.writeUTF("com.example.Foo");
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+        assertThat(DependencyIndex.load(file, CONFIGURATION).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void ignoresTruncatedIndex() throws IOException {
+        File file = folder.newFile();
+        newIndex().save(file);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() / 2);
+        }
+        DependencyIndex loaded = DependencyIndex.load(file, CONFIGURATION);
+        assertThat(loaded.size()).isEqualTo(0);
+        assertThat(loaded.getAffectedLocations(ImmutableList.of("com.example.Base"))).isEmpty();
+    }
+
+    private static DependencyIndex newIndex() {
+        DependencyIndex index = new DependencyIndex(CONFIGURATION);
+        index.put(FOO, new DependencyIndex.Entry("com.example.Foo",
+                ImmutableList.of("com.example.Bar", "com.example.Base"),
+                ImmutableList.of(FINDING)));
+        index.put(QUX, new DependencyIndex.Entry("com.example.Qux",
+                ImmutableList.of("com.example.Base"), ImmutableList.<Finding>of()));
+        return index;
+    }
+}
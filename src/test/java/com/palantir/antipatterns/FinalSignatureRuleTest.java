@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.palantir.antipatterns.ClassFileBuilder.ACC_PRIVATE;
+import static com.palantir.antipatterns.ClassFileBuilder.ACC_SUPER;
+import static com.palantir.antipatterns.ClassHeader.ACC_ENUM;
+import static com.palantir.antipatterns.ClassHeader.ACC_FINAL;
+import static com.palantir.antipatterns.ClassHeader.ACC_PROTECTED;
+import static com.palantir.antipatterns.ClassHeader.ACC_PUBLIC;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class FinalSignatureRuleTest {
+
+    private final Map<String, Integer> accessFlags = new HashMap<>();
+    private final List<String> lookups = new ArrayList<>();
+    private final ClassLookup lookup = new ClassLookup() {
+        @Override
+        public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int lookupAccessFlags(String className) throws ClassNotFoundException {
+            lookups.add(className);
+            Integer flags = accessFlags.get(className);
+            if (flags == null) {
+                throw new ClassNotFoundException(className);
+            }
+            return flags;
+        }
+    };
+
+    @Test
+    public void reportsFinalTypesInVisibleSignatures() {
+        accessFlags.put("com.example.Bar", ACC_PUBLIC | ACC_FINAL);
+        accessFlags.put("com.example.Open", ACC_PUBLIC);
+        accessFlags.put("com.example.Color", ACC_PUBLIC | ACC_FINAL | ACC_ENUM);
+        ClassHeader foo = ClassHeaderTest.parse(new ClassFileBuilder("com.example.Foo")
+                .accessFlags(ACC_PUBLIC | ACC_SUPER | ACC_FINAL)
+                .addMethod(ACC_PUBLIC, "<init>", "()V")
+                .addMethod(ACC_PUBLIC, "get", "()Lcom/example/Bar;")
+                .addMethod(ACC_PROTECTED, "set", "(ILcom/example/Open;Lcom/example/Bar;)V")
+                .addMethod(ACC_PUBLIC, "paint", "(Lcom/example/Color;[Lcom/example/Bar;)V")
+                .addMethod(ACC_PUBLIC, "name", "(Ljava/lang/String;)Ljava/lang/Integer;")
+                .addMethod(ACC_PUBLIC, "missing", "(Lcom/example/Missing;)V")
+                .addMethod(ACC_PRIVATE, "hidden", "()Lcom/example/Bar;")
+                .build());
+
+        assertThat(check(newRule(100), foo)).containsExactly(
+                "constructor 0", "return 1 com.example.Bar", "param 2/2 com.example.Bar")
+                .inOrder();
+    }
+
+    @Test
+    public void sharesVerdictsBetweenSignatures() {
+        accessFlags.put("com.example.Bar", ACC_PUBLIC | ACC_FINAL);
+        FinalSignatureRule rule = newRule(100);
+        check(rule, classReturningBar("com.example.Foo"));
+        check(rule, classReturningBar("com.example.Baz"));
+        assertThat(lookups).containsExactly("com.example.Bar");
+        assertThat(rule.getFinalTypeCache().getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void reresolvesInvalidatedTypes() {
+        accessFlags.put("com.example.Bar", ACC_PUBLIC | ACC_FINAL);
+        FinalSignatureRule rule = newRule(100);
+        ClassHeader foo = classReturningBar("com.example.Foo");
+        assertThat(check(rule, foo)).containsExactly("return 0 com.example.Bar");
+
+        accessFlags.put("com.example.Bar", ACC_PUBLIC);
+        rule.invalidate(ImmutableList.of("com.example.Bar"));
+        assertThat(check(rule, foo)).isEmpty();
+
+        accessFlags.put("com.example.Bar", ACC_PUBLIC | ACC_FINAL);
+        rule.invalidate(ImmutableList.of("com.example.Bar"));
+        assertThat(check(rule, foo)).containsExactly("return 0 com.example.Bar");
+    }
+
+    @Test
+    public void invalidatesDescriptorsOfEvictedTypes() {
+        accessFlags.put("com.example.Bar", ACC_PUBLIC | ACC_FINAL);
+        accessFlags.put("com.example.Other", ACC_PUBLIC);
+        FinalSignatureRule rule = newRule(1);
+        ClassHeader foo = classReturningBar("com.example.Foo");
+        assertThat(check(rule, foo)).containsExactly("return 0 com.example.Bar");
+
+        // Resolving another type evicts Bar's verdict, but not the descriptor verdict built on it.
+        check(rule, ClassHeaderTest.parse(new ClassFileBuilder("com.example.Qux")
+                .addMethod(ACC_PUBLIC, "get", "()Lcom/example/Other;").build()));
+        assertThat(rule.getFinalTypeCache().hasVerdict("com.example.Bar")).isFalse();
+
+        accessFlags.put("com.example.Bar", ACC_PUBLIC);
+        rule.invalidate(ImmutableList.of("com.example.Bar"));
+        assertThat(check(rule, foo)).isEmpty();
+    }
+
+    @Test
+    public void keepsVerdictsWhenNothingChanged() {
+        accessFlags.put("com.example.Bar", ACC_PUBLIC | ACC_FINAL);
+        FinalSignatureRule rule = newRule(100);
+        ClassHeader foo = classReturningBar("com.example.Foo");
+        check(rule, foo);
+        rule.invalidate(ImmutableList.<String>of());
+        check(rule, foo);
+        assertThat(lookups).containsExactly("com.example.Bar");
+    }
+
+    @Test
+    public void skipsClassesOutsideApi() {
+        accessFlags.put("com.example.Bar", ACC_PUBLIC | ACC_FINAL);
+        FinalSignatureRule rule = new FinalSignatureRule(PackageFilter.DEFAULT,
+                ApiSurface.exporting(ImmutableList.of("com.example.api")), 100, 100);
+        assertThat(check(rule, classReturningBar("com.example.Foo"))).isEmpty();
+        assertThat(check(rule, classReturningBar("com.example.api.Foo")))
+                .containsExactly("return 0 com.example.Bar");
+    }
+
+    private static FinalSignatureRule newRule(long maxTypes) {
+        return new FinalSignatureRule(PackageFilter.DEFAULT, ApiSurface.ALL, 100, maxTypes);
+    }
+
+    private static ClassHeader classReturningBar(String className) {
+        return ClassHeaderTest.parse(new ClassFileBuilder(className)
+                .addMethod(ACC_PUBLIC, "get", "()Lcom/example/Bar;").build());
+    }
+
+    private List<String> check(FinalSignatureRule rule, ClassHeader obj) {
+        final List<String> found = new ArrayList<>();
+        rule.check(obj, lookup, new FinalSignatureRule.Listener() {
+            @Override
+            public void finalTypeReturn(int method, String type) {
+                found.add("return " + method + " " + type);
+            }
+
+            @Override
+            public void finalTypeConstructor(int method) {
+                found.add("constructor " + method);
+            }
+
+            @Override
+            public void finalTypeParam(int method, int param, String type) {
+                found.add("param " + method + "/" + param + " " + type);
+            }
+        });
+        return found;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.palantir.antipatterns.ClassHeader.ACC_ENUM;
+import static com.palantir.antipatterns.ClassHeader.ACC_FINAL;
+import static com.palantir.antipatterns.ClassHeader.ACC_PUBLIC;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class FinalTypeCacheTest {
+
+    private final Map<String, Integer> accessFlags = new HashMap<>();
+    private final ClassLookup lookup = new ClassLookup() {
+        @Override
+        public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int lookupAccessFlags(String className) throws ClassNotFoundException {
+            Integer flags = accessFlags.get(className);
+            if (flags == null) {
+                throw new ClassNotFoundException(className);
+            }
+            return flags;
+        }
+    };
+
+    @Test
+    public void resolvesVerdictsFromAccessFlags() {
+        accessFlags.put("com.example.Final", ACC_PUBLIC | ACC_FINAL);
+        accessFlags.put("com.example.Open", ACC_PUBLIC);
+        accessFlags.put("com.example.Color", ACC_PUBLIC | ACC_FINAL | ACC_ENUM);
+        FinalTypeCache cache = new FinalTypeCache(100);
+        assertThat(cache.getVerdict("com.example.Final", lookup))
+                .isEqualTo(FinalTypeCache.Verdict.FINAL);
+        assertThat(cache.getVerdict("com.example.Open", lookup))
+                .isEqualTo(FinalTypeCache.Verdict.NON_FINAL);
+        assertThat(cache.getVerdict("com.example.Color", lookup))
+                .isEqualTo(FinalTypeCache.Verdict.ENUM);
+        assertThat(cache.getVerdict("com.example.Missing", lookup))
+                .isEqualTo(FinalTypeCache.Verdict.UNRESOLVABLE);
+    }
+
+    @Test
+    public void keepsVerdictsUntilInvalidated() {
+        accessFlags.put("com.example.Bar", ACC_PUBLIC | ACC_FINAL);
+        FinalTypeCache cache = new FinalTypeCache(100);
+        assertThat(cache.hasVerdict("com.example.Bar")).isFalse();
+        cache.getVerdict("com.example.Bar", lookup);
+        accessFlags.put("com.example.Bar", ACC_PUBLIC);
+        assertThat(cache.getVerdict("com.example.Bar", lookup))
+                .isEqualTo(FinalTypeCache.Verdict.FINAL);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+
+        cache.invalidate(ImmutableList.of("com.example.Bar", "com.example.Unseen"));
+        assertThat(cache.hasVerdict("com.example.Bar")).isFalse();
+        assertThat(cache.getVerdict("com.example.Bar", lookup))
+                .isEqualTo(FinalTypeCache.Verdict.NON_FINAL);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        accessFlags.put("com.example.A", ACC_PUBLIC);
+        accessFlags.put("com.example.B", ACC_PUBLIC);
+        accessFlags.put("com.example.C", ACC_PUBLIC);
+        FinalTypeCache cache = new FinalTypeCache(2);
+        cache.getVerdict("com.example.A", lookup);
+        cache.getVerdict("com.example.B", lookup);
+        cache.getVerdict("com.example.A", lookup);
+        cache.getVerdict("com.example.C", lookup);
+        assertThat(cache.hasVerdict("com.example.A")).isTrue();
+        assertThat(cache.hasVerdict("com.example.B")).isFalse();
+        assertThat(cache.hasVerdict("com.example.C")).isTrue();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.palantir.antipatterns.ClassFileBuilder.ACC_SUPER;
+import static com.palantir.antipatterns.ClassHeader.ACC_ABSTRACT;
+import static com.palantir.antipatterns.ClassHeader.ACC_FINAL;
+import static com.palantir.antipatterns.ClassHeader.ACC_PUBLIC;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class HierarchyIndexTest {
+
+    private static final String WIDGET = "com.example.Widget";
+    private static final ClassLookup FAILING_LOOKUP = new ClassLookup() {
+        @Override
+        public ClassHeader lookupClass(String className) throws ClassNotFoundException {
+            throw new ClassNotFoundException(className);
+        }
+
+        @Override
+        public int lookupAccessFlags(String className) throws ClassNotFoundException {
+            throw new ClassNotFoundException(className);
+        }
+    };
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void answersFromStoreBeforeCensus() throws IOException, ClassNotFoundException {
+        TypeCensus census = TypeCensus.take(writeJar("lib.jar", ACC_PUBLIC | ACC_SUPER));
+        HierarchyIndex index = new HierarchyIndex(ImmutableList.of(census),
+                locator(ImmutableMap.of(WIDGET, census.getJar())));
+        index.add(ClassHeaderTest.parse(new ClassFileBuilder(WIDGET)
+                .accessFlags(ACC_PUBLIC | ACC_SUPER | ACC_ABSTRACT).build()));
+        assertThat(index.getClassInfo(WIDGET, FAILING_LOOKUP).isAbstract()).isTrue();
+    }
+
+    @Test
+    public void answersFromCensusOfJarClassIsReadFrom()
+            throws IOException, ClassNotFoundException {
+        TypeCensus first = TypeCensus.take(writeJar("first.jar", ACC_PUBLIC | ACC_SUPER));
+        TypeCensus second = TypeCensus.take(
+                writeJar("second.jar", ACC_PUBLIC | ACC_SUPER | ACC_ABSTRACT));
+        Map<String, Path> jars = ImmutableMap.of(WIDGET, second.getJar());
+        HierarchyIndex index = new HierarchyIndex(ImmutableList.of(first, second), locator(jars));
+
+        assertThat(index.contains(WIDGET)).isTrue();
+        HierarchyIndex.ClassInfo info = index.getClassInfo(WIDGET, FAILING_LOOKUP);
+        assertThat(info.isAbstract()).isTrue();
+        assertThat(info.getSuperclassName()).isEqualTo("java.lang.Object");
+        assertThat(index.answeringAccessFlags(FAILING_LOOKUP).lookupAccessFlags(WIDGET))
+                .isEqualTo(ACC_PUBLIC | ACC_SUPER | ACC_ABSTRACT);
+    }
+
+    @Test
+    public void skipsCensusWhenClassIsShadowed() throws IOException, ClassNotFoundException {
+        TypeCensus census = TypeCensus.take(
+                writeJar("lib.jar", ACC_PUBLIC | ACC_SUPER | ACC_ABSTRACT));
+        // An earlier directory supplies the class, so the locator names no jar.
+        HierarchyIndex index = new HierarchyIndex(ImmutableList.of(census),
+                locator(new HashMap<String, Path>()));
+        ClassLookup lookup = new ClassLookup() {
+            @Override
+            public ClassHeader lookupClass(String className) {
+                return ClassHeaderTest.parse(new ClassFileBuilder(className)
+                        .accessFlags(ACC_PUBLIC | ACC_SUPER | ACC_FINAL).build());
+            }
+
+            @Override
+            public int lookupAccessFlags(String className) {
+                return ACC_PUBLIC | ACC_SUPER | ACC_FINAL;
+            }
+        };
+
+        assertThat(index.contains(WIDGET)).isFalse();
+        assertThat(index.getClassInfo(WIDGET, lookup).isAbstract()).isFalse();
+        assertThat(index.answeringAccessFlags(lookup).lookupAccessFlags(WIDGET))
+                .isEqualTo(ACC_PUBLIC | ACC_SUPER | ACC_FINAL);
+    }
+
+    @Test
+    public void firstCensusOfRepeatedJarWins() throws IOException, ClassNotFoundException {
+        File jar = writeJar("lib.jar", ACC_PUBLIC | ACC_SUPER | ACC_ABSTRACT);
+        TypeCensus original = TypeCensus.take(jar);
+        writeJar("lib.jar", ACC_PUBLIC | ACC_SUPER);
+        TypeCensus rewritten = TypeCensus.take(jar);
+        HierarchyIndex index = new HierarchyIndex(ImmutableList.of(original, rewritten),
+                locator(ImmutableMap.of(WIDGET, original.getJar())));
+        assertThat(index.getClassInfo(WIDGET, FAILING_LOOKUP).isAbstract()).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void censusesNeedLocator() throws IOException {
+        TypeCensus census = TypeCensus.take(writeJar("lib.jar", ACC_PUBLIC | ACC_SUPER));
+        new HierarchyIndex(ImmutableList.of(census), null);
+    }
+
+    private static HierarchyIndex.JarLocator locator(final Map<String, Path> jars) {
+        return new HierarchyIndex.JarLocator() {
+            @Override
+            public Path findJar(String className) {
+                return jars.get(className);
+            }
+        };
+    }
+
+    private File writeJar(String name, int widgetFlags) throws IOException {
+        File jar = new File(folder.getRoot(), name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("com/example/Widget.class"));
+            out.write(new ClassFileBuilder(WIDGET).accessFlags(widgetFlags).build());
+        }
+        return jar;
+    }
+}
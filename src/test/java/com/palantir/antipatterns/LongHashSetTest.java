@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongHashSetTest {
+
+    @Test
+    public void addsEachValueOnce() {
+        LongHashSet set = new LongHashSet(4);
+        assertThat(set.add(42)).isTrue();
+        assertThat(set.add(-7)).isTrue();
+        assertThat(set.add(42)).isFalse();
+        assertThat(set.contains(42)).isTrue();
+        assertThat(set.contains(-7)).isTrue();
+        assertThat(set.contains(7)).isFalse();
+        assertThat(set.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void tracksZeroSeparately() {
+        LongHashSet set = new LongHashSet(0);
+        assertThat(set.contains(0)).isFalse();
+        assertThat(set.add(0)).isTrue();
+        assertThat(set.add(0)).isFalse();
+        assertThat(set.contains(0)).isTrue();
+        assertThat(set.size()).isEqualTo(1);
+        assertThat(set.toSortedArray()).isEqualTo(new long[] {0});
+    }
+
+    @Test
+    public void growsPastExpectedSize() {
+        LongHashSet set = new LongHashSet(0);
+        long[] values = new long[10000];
+        Random random = new Random(1);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+            assertThat(set.add(values[i])).isTrue();
+        }
+        assertThat(set.size()).isEqualTo(values.length);
+        for (long value : values) {
+            assertThat(set.contains(value)).isTrue();
+            assertThat(set.add(value)).isFalse();
+        }
+        assertThat(set.contains(random.nextLong())).isFalse();
+        Arrays.sort(values);
+        assertThat(set.toSortedArray()).isEqualTo(values);
+    }
+
+    @Test
+    public void survivesRehashWithCollidingLowBits() {
+        // Identical low bits, so only the hash's mixing spreads them over the table.
+        LongHashSet set = new LongHashSet(1);
+        for (long i = 1; i <= 1000; i++) {
+            set.add(i << 32);
+        }
+        assertThat(set.size()).isEqualTo(1000);
+        for (long i = 1; i <= 1000; i++) {
+            assertThat(set.contains(i << 32)).isTrue();
+            assertThat(set.contains((i << 32) + 1)).isFalse();
+        }
+    }
+
+    @Test
+    public void sortsSignedValues() {
+        LongHashSet set = new LongHashSet(8);
+        for (long value : new long[] {5, Long.MIN_VALUE, 0, -1, Long.MAX_VALUE}) {
+            set.add(value);
+        }
+        assertThat(set.toSortedArray())
+                .isEqualTo(new long[] {Long.MIN_VALUE, -1, 0, 5, Long.MAX_VALUE});
+    }
+}
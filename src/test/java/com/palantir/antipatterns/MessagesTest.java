@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+public class MessagesTest {
+
+    private static final String PATTERN = "PT_FINAL_TYPE_CONSTRUCTOR";
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void describesPatterns() {
+        Messages messages = Messages.get();
+        assertThat(messages.getShortDescription(PATTERN)).isNotEmpty();
+        assertThat(messages.getDetailsText(PATTERN)).doesNotContain("<");
+        assertThat(messages.format("PT_EXTENDS_CONCRETE_TYPE", "com.example.Foo",
+                "com.example.Base")).contains("com.example.Base");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPattern() {
+        Messages.get().getShortDescription("NP_ALWAYS_NULL");
+    }
+
+    /** FindBugs' jar has its own messages.xml at the root, and may come first on the classpath. */
+    @Test
+    public void ignoresOtherMessagesFirstOnClasspath() throws Exception {
+        File findbugs = folder.newFolder("findbugs");
+        Files.write("<MessageCollection><BugPattern type=\"NP_ALWAYS_NULL\">"
+                + "<ShortDescription>Null pointer dereference</ShortDescription>"
+                + "</BugPattern></MessageCollection>",
+                new File(findbugs, "messages.xml"), StandardCharsets.UTF_8);
+        URL[] classpath = {
+            findbugs.toURI().toURL(),
+            codeSource(Messages.class),
+            resourceRoot(Messages.class.getResource("messages.xml")),
+            codeSource(ImmutableMap.class),
+        };
+        try (URLClassLoader loader = new URLClassLoader(classpath, null)) {
+            Class<?> messagesClass = Class.forName(Messages.class.getName(), true, loader);
+            assertThat(messagesClass).isNotSameAs(Messages.class);
+            Method get = messagesClass.getDeclaredMethod("get");
+            Method getShortDescription =
+                    messagesClass.getDeclaredMethod("getShortDescription", String.class);
+            get.setAccessible(true);
+            getShortDescription.setAccessible(true);
+            assertThat(getShortDescription.invoke(get.invoke(null), PATTERN))
+                    .isEqualTo(Messages.get().getShortDescription(PATTERN));
+        }
+    }
+
+    private static URL codeSource(Class<?> type) {
+        return type.getProtectionDomain().getCodeSource().getLocation();
+    }
+
+    /** The classpath entry a package resource was found in, which may not hold the classes. */
+    private static URL resourceRoot(URL resource) throws Exception {
+        String url = resource.toString();
+        String name = Messages.class.getPackage().getName().replace('.', '/') + "/messages.xml";
+        assertThat(url).endsWith(name);
+        return new URL(url.substring(0, url.length() - name.length()));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+public class PackageFilterTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void defaultExcludesOnlyJava() {
+        PackageFilter filter = PackageFilter.DEFAULT;
+        assertThat(filter.isExcluded("java.lang.String")).isTrue();
+        assertThat(filter.isExcluded("java.util.concurrent.Future")).isTrue();
+        assertThat(filter.isExcluded("javax.swing.JFrame")).isFalse();
+        assertThat(filter.isExcluded("com.example.Foo")).isFalse();
+    }
+
+    @Test
+    public void matchesWholePackageNamesOnly() {
+        PackageFilter filter = PackageFilter.builder().exclude(Arrays.asList("com.foo")).build();
+        assertThat(filter.isExcluded("com.foo.Bar")).isTrue();
+        assertThat(filter.isExcluded("com.foo.sub.Bar")).isTrue();
+        assertThat(filter.isExcluded("com.foobar.Baz")).isFalse();
+        assertThat(filter.isExcluded("com.fo.Baz")).isFalse();
+        // A class named foo in package com, not a class in package com.foo.
+        assertThat(filter.isExcluded("com.foo")).isFalse();
+    }
+
+    @Test
+    public void mostSpecificRuleWins() {
+        PackageFilter filter = PackageFilter.builder()
+                .exclude(Arrays.asList("com.google", "com.google.mycompany.internal"))
+                .include(Arrays.asList("com.google.mycompany"))
+                .build();
+        assertThat(filter.isExcluded("com.google.common.base.Optional")).isTrue();
+        assertThat(filter.isExcluded("com.google.mycompany.Api")).isFalse();
+        assertThat(filter.isExcluded("com.google.mycompany.internal.Impl")).isTrue();
+        assertThat(filter.isExcluded("com.googlex.Foo")).isFalse();
+    }
+
+    @Test
+    public void includeCanOverrideDefault() {
+        PackageFilter filter = PackageFilter.builder().include(Arrays.asList("java.util")).build();
+        assertThat(filter.isExcluded("java.util.ArrayList")).isFalse();
+        assertThat(filter.isExcluded("java.lang.String")).isTrue();
+    }
+
+    @Test
+    public void matchesSlashSeparatedNamesWithinRange() {
+        PackageFilter filter = PackageFilter.builder().exclude(Arrays.asList("com.foo")).build();
+        String descriptor = "(Lcom/foo/Bar;Lcom/foobar/Baz;)V";
+        assertThat(filter.isExcluded(descriptor, 2, 13)).isTrue();
+        assertThat(filter.isExcluded(descriptor, 15, 29)).isFalse();
+    }
+
+    @Test
+    public void normalizesPackageNames() {
+        PackageFilter filter = PackageFilter.builder()
+                .exclude(Arrays.asList(" com.foo.* ", "org/bar/", "net.baz."))
+                .build();
+        assertThat(filter.isExcluded("com.foo.Foo")).isTrue();
+        assertThat(filter.isExcluded("org.bar.Bar")).isTrue();
+        assertThat(filter.isExcluded("net.baz.Baz")).isTrue();
+        assertThat(filter.toString()).isEqualTo("-com.foo -java -net.baz -org.bar");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPackageNames() {
+        PackageFilter.builder().exclude(Arrays.asList(".*"));
+    }
+
+    @Test
+    public void readsRulesFromFile() throws IOException {
+        File file = folder.newFile();
+        Files.write("# Trust Guava, but not our own fork of it\n"
+                + "-com.google\n"
+                + "\n"
+                + "  +com.google.mycompany  \n", file, StandardCharsets.UTF_8);
+        PackageFilter filter = PackageFilter.builder().addFile(file).build();
+        assertThat(filter.isExcluded("com.google.common.base.Optional")).isTrue();
+        assertThat(filter.isExcluded("com.google.mycompany.Api")).isFalse();
+        assertThat(filter.toString()).isEqualTo("-com.google +com.google.mycompany -java");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFileLinesWithoutSign() throws IOException {
+        File file = folder.newFile();
+        Files.write("com.google\n", file, StandardCharsets.UTF_8);
+        PackageFilter.builder().addFile(file);
+    }
+}
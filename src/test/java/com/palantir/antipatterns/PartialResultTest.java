@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.palantir.antipatterns.ClassHeader.ACC_ABSTRACT;
+import static com.palantir.antipatterns.ClassHeader.ACC_FINAL;
+import static com.palantir.antipatterns.ClassHeader.ACC_PROTECTED;
+import static com.palantir.antipatterns.ClassHeader.ACC_PUBLIC;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class PartialResultTest {
+
+    private static final Finding FINDING = Finding.finalTypeReturn(
+            "com.example.Foo", "get", "()Lcom/example/Bar;", "com.example.Bar");
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsResults() throws IOException {
+        ClassHeader foo = ClassHeaderTest.parse(new ClassFileBuilder("com.example.Foo")
+                .addMethod(ACC_PROTECTED, "<init>", "()V")
+                .addMethod(ACC_PUBLIC, "get", "()Lcom/example/Bar;")
+                .build());
+        PartialResult partial = new PartialResult(
+                "-java api", ApiSurface.exporting(ImmutableList.of("com.example")));
+        partial.addClass(foo);
+        partial.addResult(PartialResult.ClassResult.resolved(
+                "com.example.Foo", ImmutableList.of(FINDING)));
+        partial.addResult(
+                PartialResult.ClassResult.deferred("com.example.Baz", foo.toSkeleton(true)));
+        File file = folder.newFile();
+        partial.save(file);
+
+        PartialResult loaded = PartialResult.load(file);
+        assertThat(loaded.getConfiguration()).isEqualTo("-java api");
+        assertThat(loaded.getApiSurface().getPackages()).containsExactly("com.example");
+        assertThat(loaded.getClasses().keySet()).containsExactly("com.example.Foo");
+        assertThat(loaded.getClasses().get("com.example.Foo")).isEqualTo(foo.toSkeleton(false));
+        List<PartialResult.ClassResult> results = loaded.getResults();
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getClassName()).isEqualTo("com.example.Foo");
+        assertThat(results.get(0).isDeferred()).isFalse();
+        assertThat(results.get(0).getFindings()).containsExactly(FINDING);
+        assertThat(results.get(1).getClassName()).isEqualTo("com.example.Baz");
+        assertThat(results.get(1).isDeferred()).isTrue();
+        assertThat(results.get(1).getSkeleton()).isEqualTo(foo.toSkeleton(true));
+    }
+
+    @Test
+    public void roundTripsUnrestrictedApiSurface() throws IOException {
+        File file = folder.newFile();
+        new PartialResult("-java", ApiSurface.ALL).save(file);
+        PartialResult loaded = PartialResult.load(file);
+        assertThat(loaded.getApiSurface().isRestricted()).isFalse();
+        assertThat(loaded.getResults()).isEmpty();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherVersions() throws IOException {
+        File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(0x50544150);
+            out.writeInt(1);
+            out.writeUTF("-java");
+        }
+        PartialResult.load(file);
+    }
+
+    @Test
+    public void mergedShardsFindWhatOneScanFinds() throws IOException {
+        File library = folder.newFolder();
+        new ClassFileBuilder("lib.Base").addMethod(ACC_PUBLIC, "<init>", "()V").writeTo(library);
+        new ClassFileBuilder("lib.Extensible")
+                .addMethod(ACC_PROTECTED, "<init>", "()V")
+                .writeTo(library);
+        new ClassFileBuilder("lib.Skeletal")
+                .accessFlags(ACC_PUBLIC | ACC_ABSTRACT)
+                .writeTo(library);
+        new ClassFileBuilder("lib.Value").accessFlags(ACC_PUBLIC | ACC_FINAL).writeTo(library);
+        new ClassFileBuilder("lib.Open").writeTo(library);
+        new ClassFileBuilder("lib.Derived").superclass("lib.Base").writeTo(library);
+
+        File application = folder.newFolder();
+        new ClassFileBuilder("app.FromBase").superclass("lib.Base").writeTo(application);
+        new ClassFileBuilder("app.FromExtensible")
+                .superclass("lib.Extensible")
+                .addMethod(ACC_PUBLIC, "set", "(Llib/Value;Llib/Open;)V")
+                .writeTo(application);
+        new ClassFileBuilder("app.FromSkeletal")
+                .superclass("lib.Skeletal")
+                .addMethod(ACC_PUBLIC, "get", "()Llib/Value;")
+                .addMethod(ACC_PUBLIC, "open", "()Llib/Open;")
+                .writeTo(application);
+        new ClassFileBuilder("app.FromDerived").superclass("lib.Derived").writeTo(application);
+        new ClassFileBuilder("app.Local")
+                .addMethod(ACC_PUBLIC, "local", "(Lapp/LocalValue;)V")
+                .writeTo(application);
+        new ClassFileBuilder("app.LocalValue")
+                .accessFlags(ACC_PUBLIC | ACC_FINAL)
+                .writeTo(application);
+
+        AntipatternScanner scanner = AntipatternScanner.builder().build();
+        List<Finding> expected = scanner.scan(ImmutableList.of(library, application));
+        assertThat(expected).hasSize(6);
+
+        File libraryPartial = new File(folder.getRoot(), "library.partial");
+        File applicationPartial = new File(folder.getRoot(), "application.partial");
+        scanner.scanShard(ImmutableList.of(library), libraryPartial);
+        scanner.scanShard(ImmutableList.of(application), applicationPartial);
+        assertThat(deferredClasses(applicationPartial))
+                .containsExactly("app.FromBase", "app.FromExtensible", "app.FromSkeletal",
+                        "app.FromDerived");
+
+        List<Finding> merged = scanner.merge(ImmutableList.of(libraryPartial, applicationPartial));
+        assertThat(merged).containsExactlyElementsIn(expected).inOrder();
+    }
+
+    private static List<String> deferredClasses(File partialFile) throws IOException {
+        ImmutableList.Builder<String> deferred = ImmutableList.builder();
+        for (PartialResult.ClassResult result : PartialResult.load(partialFile).getResults()) {
+            if (result.isDeferred()) {
+                deferred.add(result.getClassName());
+            }
+        }
+        return deferred.build();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+
+public class ResultCacheTest {
+
+    private static final String CONFIGURATION = "-java";
+    private static final HashCode CLASS_HASH = hash(1, 2, 3);
+    private static final HashCode OTHER_CLASS_HASH = hash(4, 5, 6);
+    private static final ResultCache.Entry ENTRY = new ResultCache.Entry(
+            ImmutableMap.of("com.example.Bar", hash(7), "com.example.Base", hash(8)),
+            ImmutableList.of(
+                    Finding.extendsConcreteType("com.example.Foo", "com.example.Base"),
+                    Finding.finalTypeParam(
+                            "com.example.Foo", "set", "(Lcom/example/Bar;)V", 0, "com.example.Bar"),
+                    Finding.finalTypeConstructor("com.example.Foo", "<init>", "()V")));
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsEntries() throws IOException {
+        File file = folder.newFile();
+        ResultCache cache = ResultCache.load(file, CONFIGURATION);
+        assertThat(cache.get(CLASS_HASH)).isNull();
+        cache.put(CLASS_HASH, ENTRY);
+        cache.save(file);
+
+        ResultCache.Entry loaded = ResultCache.load(file, CONFIGURATION).get(CLASS_HASH);
+        assertThat(loaded.getDependencies()).isEqualTo(ENTRY.getDependencies());
+        assertThat(loaded.getFindings()).containsExactlyElementsIn(ENTRY.getFindings()).inOrder();
+    }
+
+    @Test
+    public void savesOnlyEntriesUsedThisRun() throws IOException {
+        File file = folder.newFile();
+        ResultCache first = ResultCache.load(file, CONFIGURATION);
+        first.put(CLASS_HASH, ENTRY);
+        first.put(OTHER_CLASS_HASH, ENTRY);
+        first.save(file);
+
+        ResultCache second = ResultCache.load(file, CONFIGURATION);
+        second.put(CLASS_HASH, second.get(CLASS_HASH));
+        assertThat(second.get(OTHER_CLASS_HASH)).isNotNull();
+        second.save(file);
+
+        ResultCache third = ResultCache.load(file, CONFIGURATION);
+        assertThat(third.get(CLASS_HASH)).isNotNull();
+        assertThat(third.get(OTHER_CLASS_HASH)).isNull();
+    }
+
+    @Test
+    public void ignoresCacheFromAnotherConfiguration() throws IOException {
+        File file = folder.newFile();
+        ResultCache cache = ResultCache.load(file, CONFIGURATION);
+        cache.put(CLASS_HASH, ENTRY);
+        cache.save(file);
+
+        assertThat(ResultCache.load(file, "-java -com.google").get(CLASS_HASH)).isNull();
+    }
+
+    @Test
+    public void ignoresCacheFromAnotherVersion() throws IOException {
+        File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(0x50544143);
+            out.writeInt(1);
+            out.writeUTF(CONFIGURATION);
+            out.writeInt(1);
+            out.writeByte(CLASS_HASH.bits() / 8);
+            out.write(CLASS_HASH.asBytes());
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+        ResultCache cache = ResultCache.load(file, CONFIGURATION);
+        assertThat(cache.get(CLASS_HASH)).isNull();
+
+        cache.put(CLASS_HASH, ENTRY);
+        cache.save(file);
+        assertThat(ResultCache.load(file, CONFIGURATION).get(CLASS_HASH)).isNotNull();
+    }
+
+    @Test
+    public void ignoresTruncatedCache() throws IOException {
+        File file = folder.newFile();
+        ResultCache cache = ResultCache.load(file, CONFIGURATION);
+        cache.put(CLASS_HASH, ENTRY);
+        cache.save(file);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() / 2);
+        }
+        assertThat(ResultCache.load(file, CONFIGURATION).get(CLASS_HASH)).isNull();
+    }
+
+    @Test
+    public void startsEmptyWithoutFile() {
+        File missing = new File(folder.getRoot(), "missing.cache");
+        assertThat(ResultCache.load(missing, CONFIGURATION).get(CLASS_HASH)).isNull();
+    }
+
+    @Test
+    public void hashesClassFileFromPosition() {
+        byte[] classFile = {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 52};
+        ByteBuffer padded = ByteBuffer.allocate(classFile.length + 2);
+        padded.position(2);
+        padded.put(classFile);
+        padded.position(2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(classFile.length);
+        direct.put(classFile);
+        direct.flip();
+
+        HashCode expected = ResultCache.hash(ByteBuffer.wrap(classFile));
+        assertThat(ResultCache.hash(padded)).isEqualTo(expected);
+        assertThat(ResultCache.hash(direct)).isEqualTo(expected);
+        assertThat(direct.position()).isEqualTo(0);
+    }
+
+    private static HashCode hash(int... bytes) {
+        byte[] value = new byte[16];
+        for (int i = 0; i < bytes.length; i++) {
+            value[i] = (byte) bytes[i];
+        }
+        return HashCode.fromBytes(value);
+    }
+}
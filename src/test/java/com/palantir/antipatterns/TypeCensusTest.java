@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.antipatterns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.palantir.antipatterns.ClassFileBuilder.ACC_SUPER;
+import static com.palantir.antipatterns.ClassHeader.ACC_ABSTRACT;
+import static com.palantir.antipatterns.ClassHeader.ACC_FINAL;
+import static com.palantir.antipatterns.ClassHeader.ACC_INTERFACE;
+import static com.palantir.antipatterns.ClassHeader.ACC_PROTECTED;
+import static com.palantir.antipatterns.ClassHeader.ACC_PUBLIC;
+import static com.palantir.antipatterns.ClassMetadataStore.PROTECTED_CONSTRUCTOR;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+public class TypeCensusTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsFlagsAndSuperclasses() throws IOException {
+        TypeCensus census = TypeCensus.take(writeLibrary("lib.jar"));
+        assertThat(census.size()).isEqualTo(3);
+
+        int base = census.indexOf("com.example.Base");
+        assertThat(census.getFlags(base))
+                .isEqualTo(ACC_PUBLIC | ACC_SUPER | ACC_ABSTRACT | PROTECTED_CONSTRUCTOR);
+        assertThat(census.getSuperclassName(base)).isEqualTo("java.lang.Object");
+
+        int leaf = census.indexOf("com.example.Leaf");
+        assertThat(census.getFlags(leaf)).isEqualTo(ACC_PUBLIC | ACC_SUPER | ACC_FINAL);
+        assertThat(census.getSuperclassName(leaf)).isEqualTo("com.example.Base");
+
+        int api = census.indexOf("com.example.Api");
+        assertThat(census.getFlags(api)).isEqualTo(ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT);
+    }
+
+    @Test
+    public void skipsDescriptorsAndVersionedClasses() throws IOException {
+        TypeCensus census = TypeCensus.take(writeLibrary("lib.jar"));
+        assertThat(census.indexOf("module-info")).isEqualTo(-1);
+        assertThat(census.indexOf("com.example.Java11Only")).isEqualTo(-1);
+        assertThat(census.indexOf("com.example.Missing")).isEqualTo(-1);
+    }
+
+    @Test
+    public void rejectsBadClassFile() throws IOException {
+        File jar = folder.newFile("bad.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("com/example/Bad.class"));
+            out.write(new byte[] {(byte) 0xCA, (byte) 0xFE});
+        }
+        try {
+            TypeCensus.take(jar);
+            throw new AssertionError("Expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("com/example/Bad.class");
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedMethodTable() throws IOException {
+        byte[] classFile = new ClassFileBuilder("com.example.Bad")
+                .addMethod(ACC_PROTECTED, "<init>", "()V")
+                .build();
+        File jar = folder.newFile("bad.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("com/example/Bad.class"));
+            out.write(classFile, 0, classFile.length - 10);
+        }
+        try {
+            TypeCensus.take(jar);
+            throw new AssertionError("Expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("com/example/Bad.class");
+        }
+    }
+
+    @Test
+    public void roundTripsThroughCache() throws IOException {
+        File jar = writeLibrary("lib.jar");
+        File cacheDirectory = new File(folder.getRoot(), "census");
+        TypeCensus taken = TypeCensus.forJar(jar, cacheDirectory);
+        File cached = cachedFile(jar, cacheDirectory);
+        assertThat(cached.isFile()).isTrue();
+        assertThat(cacheDirectory.list()).asList().containsExactly(cached.getName());
+
+        TypeCensus loaded = TypeCensus.forJar(jar, cacheDirectory);
+        assertJar(loaded.getJar(), jar);
+        assertCensusesEqual(loaded, taken);
+    }
+
+    @Test
+    public void retakesCensusFromAnotherVersion() throws IOException {
+        checkRetakes(0x50544154, 0);
+    }
+
+    @Test
+    public void retakesCensusWithResultCacheMagic() throws IOException {
+        // Censuses once shared the result cache's magic; such files must not be read as censuses.
+        checkRetakes(0x50544143, 1);
+    }
+
+    @Test
+    public void forJarsSkipsDirectoriesAndKeepsOrder() throws IOException {
+        File first = writeLibrary("first.jar");
+        File second = writeLibrary("second.jar");
+        List<TypeCensus> censuses = TypeCensus.forJars(
+                ImmutableList.of(second, folder.newFolder("classes"), first,
+                        new File(folder.getRoot(), "missing.jar")),
+                new File(folder.getRoot(), "census"));
+        assertThat(censuses).hasSize(2);
+        assertJar(censuses.get(0).getJar(), second);
+        assertJar(censuses.get(1).getJar(), first);
+    }
+
+    @Test
+    public void pathOfIgnoresHowJarIsNamed() throws IOException {
+        File jar = writeLibrary("lib.jar");
+        File indirect = new File(new File(folder.getRoot(), "."), "lib.jar");
+        assertJar(TypeCensus.pathOf(indirect), jar);
+        assertJar(TypeCensus.take(indirect).getJar(), jar);
+    }
+
+    /** Writes a cached census the current version cannot read, and checks it is replaced. */
+    private void checkRetakes(int magic, int version) throws IOException {
+        File jar = writeLibrary("lib.jar");
+        File cacheDirectory = folder.newFolder("census");
+        File cached = cachedFile(jar, cacheDirectory);
+        try (DataOutputStream out = new DataOutputStream(
+                new GZIPOutputStream(new FileOutputStream(cached)))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(1);
+            out.writeUTF("com.example.Ghost");
+            out.writeInt(ACC_PUBLIC | ACC_FINAL);
+            out.writeUTF("");
+        }
+        TypeCensus census = TypeCensus.forJar(jar, cacheDirectory);
+        assertThat(census.indexOf("com.example.Ghost")).isEqualTo(-1);
+        assertCensusesEqual(census, TypeCensus.take(jar));
+        assertCensusesEqual(TypeCensus.forJar(jar, cacheDirectory), census);
+    }
+
+    /** A jar of three classes, a module descriptor and a versioned class, none of them read. */
+    private File writeLibrary(String name) throws IOException {
+        File jar = new File(folder.getRoot(), name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("com/"));
+            out.putNextEntry(new JarEntry("com/example/Base.class"));
+            out.write(new ClassFileBuilder("com.example.Base")
+                    .accessFlags(ACC_PUBLIC | ACC_SUPER | ACC_ABSTRACT)
+                    .addMethod(ACC_PROTECTED, "<init>", "()V")
+                    .build());
+            out.putNextEntry(new JarEntry("com/example/Leaf.class"));
+            out.write(new ClassFileBuilder("com.example.Leaf")
+                    .accessFlags(ACC_PUBLIC | ACC_SUPER | ACC_FINAL)
+                    .superclass("com.example.Base")
+                    .build());
+            out.putNextEntry(new JarEntry("com/example/Api.class"));
+            out.write(new ClassFileBuilder("com.example.Api")
+                    .accessFlags(ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT)
+                    .build());
+            out.putNextEntry(new JarEntry("com/example/README.txt"));
+            out.write(new byte[] {'h', 'i'});
+            out.putNextEntry(new JarEntry("module-info.class"));
+            out.write(ClassHeaderTest.moduleInfo("com.example", ImmutableList.of("com.example"),
+                    ImmutableList.<String>of()));
+            out.putNextEntry(new JarEntry("META-INF/versions/11/com/example/Java11Only.class"));
+            out.write(new ClassFileBuilder("com.example.Java11Only").build());
+        }
+        return jar;
+    }
+
+    private static File cachedFile(File jar, File cacheDirectory) throws IOException {
+        return new File(cacheDirectory, Files.hash(jar, Hashing.sha256()) + ".census");
+    }
+
+    private static void assertJar(Path actual, File jar) {
+        // A Path is both Comparable and Iterable, so name Truth's Object overload.
+        assertThat((Object) actual).isEqualTo(TypeCensus.pathOf(jar));
+    }
+
+    private static void assertCensusesEqual(TypeCensus actual, TypeCensus expected) {
+        assertThat(actual.size()).isEqualTo(expected.size());
+        for (String name : ImmutableList.of("com.example.Api", "com.example.Base",
+                "com.example.Leaf")) {
+            int index = actual.indexOf(name);
+            assertThat(index).isEqualTo(expected.indexOf(name));
+            assertThat(actual.getFlags(index)).isEqualTo(expected.getFlags(index));
+            assertThat(actual.getSuperclassName(index))
+                    .isEqualTo(expected.getSuperclassName(index));
+        }
+    }
+}